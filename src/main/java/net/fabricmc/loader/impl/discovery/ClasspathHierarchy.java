@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.mappings.InheritedMemberTables;
+import org.objectweb.asm.ClassReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Supertypes of the classes on the remap classpath, read from the class headers of the {@link ClasspathIndex} jar.
+ */
+public final class ClasspathHierarchy implements InheritedMemberTables.Hierarchy, Closeable {
+	private final Path[] classpath;
+	private final List<ZipFile> zipFiles = new ArrayList<>();
+
+	ClasspathHierarchy(Path[] classpath) throws IOException {
+		this.classpath = classpath;
+
+		try {
+			for (Path path : classpath) {
+				if (Files.isRegularFile(path)) zipFiles.add(new ZipFile(path.toFile()));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens the hierarchy of the current remap classpath, indexing it into {@code cacheDir} first if needed.
+	 */
+	public static ClasspathHierarchy open(Path cacheDir) throws IOException {
+		return new ClasspathHierarchy(RuntimeModRemapper.getIndexedRemapClasspath(cacheDir));
+	}
+
+	@Override
+	public String[] getSupertypes(String name) throws IOException {
+		byte[] data = getClassBytes(name + ".class");
+		if (data == null) return null;
+
+		ClassReader reader = new ClassReader(data);
+		String[] interfaces = reader.getInterfaces();
+		String[] ret = new String[interfaces.length + 1];
+		ret[0] = reader.getSuperName();
+		System.arraycopy(interfaces, 0, ret, 1, interfaces.length);
+
+		return ret;
+	}
+
+	private byte[] getClassBytes(String fileName) throws IOException {
+		for (ZipFile zipFile : zipFiles) {
+			ZipEntry entry = zipFile.getEntry(fileName);
+			if (entry == null) continue;
+
+			try (InputStream is = zipFile.getInputStream(entry)) {
+				ByteArrayOutputStream ret = new ByteArrayOutputStream((int) Math.max(entry.getSize(), 64));
+				byte[] buffer = new byte[8192];
+				int len;
+
+				while ((len = is.read(buffer)) >= 0) {
+					ret.write(buffer, 0, len);
+				}
+
+				return ret.toByteArray();
+			}
+		}
+
+		for (Path path : classpath) {
+			if (!Files.isDirectory(path)) continue;
+
+			Path file = path.resolve(fileName);
+			if (Files.isRegularFile(file)) return Files.readAllBytes(file);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (ZipFile zipFile : zipFiles) {
+			zipFile.close();
+		}
+	}
+}
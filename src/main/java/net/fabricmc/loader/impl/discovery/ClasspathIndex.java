@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.HashUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.TypePath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Class hierarchy and member declarations of the remap classpath, stored as a jar of stub classes in
+ * {@code .fabric/classpath}.
+ *
+ * <p>Tiny-remapper only needs supertypes and members from the classpath. The stubs drop code, debug info,
+ * annotations and signatures, so reading them is a small fraction of reading the full Minecraft, Forge and library
+ * jars. The index is keyed by the path, size and modification time of every classpath entry and rebuilt whenever one
+ * of them changes.
+ */
+final class ClasspathIndex {
+	static final String DIR_NAME = "classpath";
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Returns the index jar for the given classpath, building it first if needed.
+	 */
+	static Path get(List<Path> classpath, Path cacheDir) throws IOException {
+		Path dir = cacheDir.resolve(DIR_NAME);
+		Path index = dir.resolve(getKey(classpath) + ".jar");
+
+		if (Files.isRegularFile(index)) {
+			Log.debug(LogCategory.MOD_REMAP, "Using remap classpath index %s", index);
+			return index;
+		}
+
+		long startTime = System.nanoTime();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, "index", ".tmp");
+		int count;
+
+		try {
+			try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(tmp))) {
+				count = write(classpath, zos);
+			}
+
+			Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		Log.debug(LogCategory.MOD_REMAP, "Indexed %d remap classpath classes in %.1f ms", count, (System.nanoTime() - startTime) * 1e-6);
+
+		// only the current classpath is of interest
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.jar")) {
+			for (Path path : stream) {
+				if (!path.equals(index)) Files.deleteIfExists(path);
+			}
+		} catch (IOException e) {
+			Log.debug(LogCategory.MOD_REMAP, "Failed to remove old remap classpath indices", e);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Key of the given classpath, changes with the path, size or modification time of any of its entries.
+	 */
+	static String getKey(List<Path> classpath) throws IOException {
+		MessageDigest digest = HashUtil.newDigest();
+		HashUtil.update(digest, Integer.toString(FORMAT_VERSION));
+
+		for (Path path : classpath) {
+			HashUtil.update(digest, path.toAbsolutePath().toString());
+
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> files = Files.walk(path)) {
+					for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+						updateMetadata(digest, file);
+					}
+				}
+			} else if (Files.exists(path)) {
+				updateMetadata(digest, path);
+			}
+		}
+
+		return HashUtil.toHex(digest.digest()).substring(0, 20);
+	}
+
+	private static void updateMetadata(MessageDigest digest, Path file) throws IOException {
+		HashUtil.update(digest, file.toString());
+		HashUtil.update(digest, Long.toString(Files.size(file)));
+		HashUtil.update(digest, Long.toString(Files.getLastModifiedTime(file).toMillis()));
+	}
+
+	private static int write(List<Path> classpath, ZipOutputStream out) throws IOException {
+		Set<String> written = new HashSet<>();
+
+		for (Path path : classpath) {
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> files = Files.walk(path)) {
+					for (Path file : files.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList())) {
+						try (InputStream is = Files.newInputStream(file)) {
+							writeStub(path.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"), is, written, out);
+						}
+					}
+				}
+			} else if (Files.isRegularFile(path)) {
+				try (ZipInputStream zis = new ZipInputStream(Files.newInputStream(path))) {
+					ZipEntry entry;
+
+					while ((entry = zis.getNextEntry()) != null) {
+						if (!entry.isDirectory()) writeStub(entry.getName(), zis, written, out);
+					}
+				}
+			}
+		}
+
+		return written.size();
+	}
+
+	private static void writeStub(String name, InputStream is, Set<String> written, ZipOutputStream out) throws IOException {
+		// first occurrence wins like on the class path, versioned and module descriptors are irrelevant for remapping
+		if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class") || !written.add(name)) return;
+
+		byte[] stub;
+
+		try {
+			ClassReader reader = new ClassReader(readAll(is));
+			ClassWriter writer = new ClassWriter(0);
+			reader.accept(new StubVisitor(writer), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+			stub = writer.toByteArray();
+		} catch (RuntimeException e) {
+			Log.debug(LogCategory.MOD_REMAP, "Skipping unreadable class %s in remap classpath", name, e);
+			return;
+		}
+
+		out.putNextEntry(new ZipEntry(name));
+		out.write(stub);
+		out.closeEntry();
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+
+		while ((len = is.read(buffer)) >= 0) {
+			ret.write(buffer, 0, len);
+		}
+
+		return ret.toByteArray();
+	}
+
+	/**
+	 * Keeps the class header, inner class attributes and member declarations only.
+	 */
+	private static final class StubVisitor extends ClassVisitor {
+		StubVisitor(ClassVisitor next) {
+			super(Opcodes.ASM9, next);
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			super.visit(version, access, name, null, superName, interfaces);
+		}
+
+		@Override
+		public void visitSource(String source, String debug) { }
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+			return null;
+		}
+
+		@Override
+		public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+			return null;
+		}
+
+		@Override
+		public void visitAttribute(Attribute attribute) { }
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			super.visitField(access, name, descriptor, null, null).visitEnd();
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+			super.visitMethod(access, name, descriptor, null, null).visitEnd();
+			return null;
+		}
+	}
+}
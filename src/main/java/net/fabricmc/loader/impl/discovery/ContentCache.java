@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.HashUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content addressed store for results computed from input bytes, e.g. remapped refmaps or lazily remapped classes.
+ *
+ * <p>Entries are kept in a directory per key, the key covering everything besides the input the results depend on
+ * such as the mapping fingerprint. Entries of other keys can never be hit again and get removed by {@link #prune}.
+ */
+final class ContentCache {
+	private final Path dir;
+	private final Path keyDir;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	ContentCache(Path cacheDir, String dirName, String key) {
+		MessageDigest digest = HashUtil.newDigest();
+		HashUtil.update(digest, key);
+
+		this.dir = cacheDir.resolve(dirName);
+		this.keyDir = dir.resolve(HashUtil.toHex(digest.digest()).substring(0, 20));
+	}
+
+	/**
+	 * Returns the cached output for {@code input}, computing and storing it on a miss.
+	 *
+	 * @param kind separates outputs of different computations over the same input
+	 */
+	byte[] get(String kind, byte[] input, Computation computation) throws IOException {
+		Path file = getPath(kind, input);
+
+		if (Files.isRegularFile(file)) {
+			try {
+				byte[] ret = Files.readAllBytes(file);
+				hits.incrementAndGet();
+
+				return ret;
+			} catch (IOException e) {
+				Log.debug(LogCategory.MOD_REMAP, "Failed to read cached %s %s", kind, file, e);
+			}
+		}
+
+		misses.incrementAndGet();
+		byte[] ret = computation.compute(input);
+
+		try {
+			Files.createDirectories(file.getParent());
+			Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+			try {
+				Files.write(tmp, ret);
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.MOD_REMAP, "Failed to cache %s %s", kind, file, e);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Removes the entries stored under any other key.
+	 */
+	void prune() {
+		if (!Files.isDirectory(dir)) return;
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				if (!path.equals(keyDir)) delete(path);
+			}
+		} catch (IOException e) {
+			Log.debug(LogCategory.MOD_REMAP, "Failed to remove outdated entries of %s", dir, e);
+		}
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	private Path getPath(String kind, byte[] input) {
+		MessageDigest digest = HashUtil.newDigest();
+		HashUtil.update(digest, kind);
+		digest.update(input);
+
+		String hash = HashUtil.toHex(digest.digest());
+
+		return keyDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+	}
+
+	private static void delete(Path path) throws IOException {
+		List<Path> files;
+
+		try (Stream<Path> stream = Files.walk(path)) {
+			files = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+
+		for (Path file : files) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	interface Computation {
+		byte[] compute(byte[] input) throws IOException;
+	}
+}
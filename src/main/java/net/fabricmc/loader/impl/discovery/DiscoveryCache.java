@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.util.HashUtil;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mod metadata and nested jar structure of the mod jars found by discovery, stored in {@code .fabric/discovery.bin}
+ * so unchanged jars become candidates without being opened.
+ *
+ * <p>Jars are keyed by path, size and modification time, a jar with a new modification time but the same size and
+ * content hash is reused as well. Metadata is kept as the raw {@code fabric.mod.json} and parsed again on use, nested
+ * jars by entry name and {@link ModCandidate#hash} along with their own metadata and nested jars.
+ */
+final class DiscoveryCache {
+	static final String FILE_NAME = "discovery.bin";
+	private static final int FORMAT_VERSION = 1;
+
+	private final Path file;
+	private final String environment;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Set<String> used = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private volatile boolean dirty;
+
+	private DiscoveryCache(Path cacheDir, EnvType envType) {
+		this.file = cacheDir.resolve(FILE_NAME);
+		this.environment = envType.name();
+	}
+
+	static DiscoveryCache load(Path cacheDir, EnvType envType) {
+		DiscoveryCache ret = new DiscoveryCache(cacheDir, envType);
+		if (!Files.isRegularFile(ret.file)) return ret;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(ret.file)))) {
+			// nested jars are only recorded for mods loading in the environment
+			if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(ret.environment)) return ret;
+
+			for (int i = in.readInt(); i > 0; i--) {
+				String key = in.readUTF();
+				ret.entries.put(key, new Entry(in.readLong(), in.readLong(), in.readUTF(), readNode(in)));
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.DISCOVERY, "Failed to read discovery cache %s, scanning all mods", ret.file, e);
+			ret.entries.clear();
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns the recorded scan result of the jar at {@code path}, or null if it's unknown or changed.
+	 */
+	Node get(Path path, BasicFileAttributes attributes) throws IOException {
+		String key = getKey(path);
+		Entry entry = entries.get(key);
+
+		if (entry == null || entry.size != attributes.size()) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		if (entry.lastModified != lastModified) {
+			// e.g. copied instances, hashing is still far cheaper than scanning the jar
+			if (!entry.contentHash.equals(HashUtil.hash(path))) {
+				misses.incrementAndGet();
+				return null;
+			}
+
+			entries.put(key, new Entry(entry.size, lastModified, entry.contentHash, entry.node));
+			dirty = true;
+		}
+
+		used.add(key);
+		hits.incrementAndGet();
+
+		return entry.node;
+	}
+
+	/**
+	 * Records the scan result of the jar at {@code path}, the nested nodes may still be filled in until {@link #save}.
+	 *
+	 * @param attributes the attributes read before scanning the jar
+	 */
+	void put(Path path, BasicFileAttributes attributes, Node node) throws IOException {
+		String key = getKey(path);
+		entries.put(key, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), HashUtil.hash(path), node));
+		used.add(key);
+		dirty = true;
+	}
+
+	int getHits() {
+		return hits.get();
+	}
+
+	int getMisses() {
+		return misses.get();
+	}
+
+	void save() throws IOException {
+		// forget jars that weren't found this time
+		if (entries.keySet().retainAll(used)) dirty = true;
+		if (!dirty) return;
+
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(environment);
+				out.writeInt(entries.size());
+
+				for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+					Entry entry = e.getValue();
+					out.writeUTF(e.getKey());
+					out.writeLong(entry.size);
+					out.writeLong(entry.lastModified);
+					out.writeUTF(entry.contentHash);
+					writeNode(entry.node, out);
+				}
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		dirty = false;
+	}
+
+	private static String getKey(Path path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+
+	private static Node readNode(DataInputStream in) throws IOException {
+		Node ret = new Node(in.readUTF(), in.readLong());
+		int length = in.readInt();
+
+		if (length >= 0) {
+			ret.metadata = new byte[length];
+			in.readFully(ret.metadata);
+		}
+
+		int count = in.readInt();
+
+		if (count > 0) {
+			ret.children = new ArrayList<>(count);
+
+			for (int i = 0; i < count; i++) {
+				ret.children.add(readNode(in));
+			}
+		}
+
+		return ret;
+	}
+
+	private static void writeNode(Node node, DataOutputStream out) throws IOException {
+		out.writeUTF(node.localPath);
+		out.writeLong(node.hash);
+
+		if (node.metadata != null) {
+			out.writeInt(node.metadata.length);
+			out.write(node.metadata);
+		} else {
+			out.writeInt(-1);
+		}
+
+		out.writeInt(node.children.size());
+
+		for (Node child : node.children) {
+			writeNode(child, out);
+		}
+	}
+
+	/**
+	 * Scan result of a mod jar, shared between the jars nesting the same jar like their scan tasks.
+	 */
+	static final class Node {
+		final String localPath;
+		final long hash;
+		/** the raw {@code fabric.mod.json}, null if there is none. */
+		byte[] metadata;
+		List<Node> children = Collections.emptyList();
+
+		Node(String localPath, long hash) {
+			this.localPath = localPath;
+			this.hash = hash;
+		}
+	}
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final String contentHash;
+		final Node node;
+
+		Entry(long size, long lastModified, String contentHash, Node node) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.contentHash = contentHash;
+			this.node = node;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.MethodRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Serves the classes of lazily remapped mods to the class loader, remapping each one on first request.
+ *
+ * <p>The mod jars are registered unremapped through a single {@code fabric-remap:} class path entry, every class name
+ * is resolved with one lookup in the merged index of all jars. Remapping uses the shared tiny-remapper environment of
+ * the remap run, remapped classes are kept in a content addressed on-disk cache.
+ */
+final class LazyClassRemapper extends URLStreamHandler {
+	static final String PROTOCOL = "fabric-remap";
+	static final String CACHE_DIR_NAME = "classes";
+	static final String INPUT_DIR_NAME = "lazyMods";
+
+	private final Remapper remapper;
+	private final ContentCache cache;
+	private final Map<String, Source> classes = new HashMap<>();
+
+	/**
+	 * @param environment tiny-remapper with all mod jars and the remap classpath read and merged, kept for the session
+	 */
+	LazyClassRemapper(TinyRemapper environment, List<Path> modJars, ContentCache cache) throws IOException {
+		this.remapper = environment.getRemapper();
+		this.cache = cache;
+
+		for (Path jar : modJars) {
+			ZipFile zipFile = new ZipFile(jar.toFile());
+
+			try (FileChannel channel = FileChannel.open(jar)) {
+				for (RemappedJarWriter.SourceEntry entry : RemappedJarWriter.readEntries(channel)) {
+					if (!entry.name.endsWith(".class") || entry.name.startsWith("META-INF/")) continue;
+
+					String name = remapper.map(entry.name.substring(0, entry.name.length() - ".class".length())) + ".class";
+					classes.putIfAbsent(name, new Source(zipFile, entry.name));
+				}
+			}
+		}
+
+		Log.debug(LogCategory.MOD_REMAP, "Indexed %d classes of %d jars for lazy remapping", classes.size(), modJars.size());
+	}
+
+	URL getUrl() {
+		try {
+			return new URL(PROTOCOL, null, -1, "/", this);
+		} catch (MalformedURLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Remapped bytes of the class file {@code name}, e.g. {@code a/b/C.class}, or null if no lazily remapped mod has it.
+	 */
+	byte[] getClassBytes(String name) throws IOException {
+		Source source = classes.get(name);
+		if (source == null) return null;
+
+		byte[] input;
+
+		try (InputStream is = source.jar.getInputStream(source.entry)) {
+			input = readAll(is, (int) source.entry.getSize());
+		}
+
+		return cache.get("class", input, this::remapClass);
+	}
+
+	private byte[] remapClass(byte[] input) {
+		ClassReader reader = new ClassReader(input);
+		ClassWriter writer = new ClassWriter(0);
+		reader.accept(new LambdaAwareClassRemapper(writer, remapper), 0);
+
+		return writer.toByteArray();
+	}
+
+	@Override
+	protected URLConnection openConnection(URL url) throws IOException {
+		String name = url.getPath();
+		if (name.startsWith("/")) name = name.substring(1);
+
+		// unknown names have to fail here, the class loader treats that as "not in this class path entry"
+		if (!classes.containsKey(name)) throw new FileNotFoundException(url.toString());
+
+		String className = name;
+
+		return new URLConnection(url) {
+			private byte[] data;
+
+			@Override
+			public void connect() throws IOException {
+				if (data == null) data = getClassBytes(className);
+				connected = true;
+			}
+
+			@Override
+			public InputStream getInputStream() throws IOException {
+				connect();
+				return new ByteArrayInputStream(data);
+			}
+
+			@Override
+			public int getContentLength() {
+				try {
+					connect();
+				} catch (IOException e) {
+					return -1;
+				}
+
+				return data.length;
+			}
+		};
+	}
+
+	private static byte[] readAll(InputStream is, int sizeHint) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : 8192);
+		byte[] buffer = new byte[8192];
+		int len;
+
+		while ((len = is.read(buffer)) >= 0) {
+			ret.write(buffer, 0, len);
+		}
+
+		return ret.toByteArray();
+	}
+
+	private static final class Source {
+		final ZipFile jar;
+		final ZipEntry entry;
+
+		Source(ZipFile jar, String entry) {
+			this.jar = jar;
+			this.entry = jar.getEntry(entry);
+		}
+	}
+
+	/**
+	 * Maps the implemented method name of lambda metafactory calls, which plain ASM remapping leaves alone.
+	 */
+	private static final class LambdaAwareClassRemapper extends ClassRemapper {
+		LambdaAwareClassRemapper(ClassVisitor next, Remapper remapper) {
+			super(Opcodes.ASM9, next, remapper);
+		}
+
+		@Override
+		protected MethodVisitor createMethodRemapper(MethodVisitor methodVisitor) {
+			return new MethodRemapper(Opcodes.ASM9, methodVisitor, remapper) {
+				@Override
+				public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+					if (bootstrapMethodHandle.getOwner().equals("java/lang/invoke/LambdaMetafactory")
+							&& bootstrapMethodArguments.length > 0 && bootstrapMethodArguments[0] instanceof Type) {
+						String owner = Type.getReturnType(descriptor).getInternalName();
+						name = remapper.mapMethodName(owner, name, ((Type) bootstrapMethodArguments[0]).getDescriptor());
+					}
+
+					super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.mappings.MappingIndex;
+import net.fabricmc.loader.impl.util.mappings.TinyRemapperMappingsHelper;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.tinyremapper.IMappingProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Restricts the mappings given to tiny-remapper to the classes the remapped mods can reach.
+ *
+ * <p>Mods are scanned for every intermediary class name in their constant pools, which covers all type references
+ * of code, descriptors, signatures and annotations, and in their access wideners. The result is closed over the
+ * supertypes of those classes on the remap classpath since members are mapped through the declaring class.
+ * Mappings of any other class can't affect the output.
+ */
+final class MappingPruner {
+	private static final int CONSTANT_UTF8 = 1;
+
+	private final MappingIndex mappings;
+	private final Set<String> referenced = ConcurrentHashMap.newKeySet();
+	private volatile boolean disabled;
+
+	MappingPruner(MappingIndex mappings) {
+		this.mappings = mappings;
+	}
+
+	/**
+	 * Adds the classes referenced by the class files and the access widener of {@code jar}.
+	 *
+	 * @param classes receives the classes {@code jar} defines and the unmapped names it references
+	 */
+	void scan(Path jar, String accessWidener, RemapPartitioner.ModClasses classes) throws IOException {
+		if (disabled) return;
+
+		try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+				if (!isScanned(entry.getName(), accessWidener)) continue;
+
+				try (InputStream is = zipFile.getInputStream(entry)) {
+					if (!scanEntry(entry.getName(), is, jar, classes)) return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #scan(Path, String, RemapPartitioner.ModClasses)} for a jar held in memory, e.g. a nested mod
+	 * that may not need to be extracted at all.
+	 *
+	 * @param source names the jar in log messages
+	 */
+	void scan(ByteBuffer jar, Object source, String accessWidener, RemapPartitioner.ModClasses classes) throws IOException {
+		if (disabled) return;
+
+		try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(jar.array(), jar.arrayOffset() + jar.position(), jar.remaining()))) {
+			ZipEntry entry;
+
+			while ((entry = zis.getNextEntry()) != null) {
+				if (isScanned(entry.getName(), accessWidener) && !scanEntry(entry.getName(), zis, source, classes)) return;
+			}
+		}
+	}
+
+	private static boolean isScanned(String name, String accessWidener) {
+		return name.endsWith(".class") || name.equals(accessWidener);
+	}
+
+	/**
+	 * @return false if the scan failed and pruning got disabled
+	 */
+	private boolean scanEntry(String name, InputStream is, Object source, RemapPartitioner.ModClasses classes) throws IOException {
+		if (name.endsWith(".class")) {
+			classes.defined.add(name.substring(0, name.length() - ".class".length()));
+
+			try {
+				scanClass(readAll(is), classes.referenced);
+			} catch (RuntimeException e) {
+				// an incomplete scan could drop needed mappings
+				Log.debug(LogCategory.MOD_REMAP, "Failed to scan %s in %s, not pruning mappings", name, source, e);
+				disabled = true;
+				return false;
+			}
+		} else { // the access widener
+			for (String line : new String(readAll(is), StandardCharsets.UTF_8).split("\n")) {
+				addNames(line, classes.referenced);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Whether every scan completed, otherwise mappings aren't pruned and references between mods are unknown.
+	 */
+	boolean isComplete() {
+		return !disabled;
+	}
+
+	/**
+	 * Builds the mapping provider for all scanned mods, or one with all mappings if pruning isn't possible.
+	 *
+	 * @param classpath the remap classpath, in the target namespace
+	 */
+	IMappingProvider build(Path[] classpath) throws IOException {
+		if (disabled) return TinyRemapperMappingsHelper.create(mappings);
+
+		long startTime = System.nanoTime();
+		Map<String, ClassDef> byTargetName = new HashMap<>();
+
+		for (ClassDef classDef : mappings.getMappings().getClasses()) {
+			byTargetName.put(classDef.getName(mappings.getTargetNamespace()), classDef);
+		}
+
+		Set<String> classes = new HashSet<>(referenced);
+		Set<String> visited = new HashSet<>();
+		Queue<String> queue = new ArrayDeque<>();
+
+		for (String name : referenced) {
+			String targetName = mappings.mapClassName(name);
+			if (visited.add(targetName)) queue.add(targetName);
+		}
+
+		try (ClasspathHierarchy hierarchy = new ClasspathHierarchy(classpath)) {
+			String name;
+
+			while ((name = queue.poll()) != null) {
+				String[] supertypes = hierarchy.getSupertypes(name);
+				if (supertypes == null) continue;
+
+				for (String superName : supertypes) {
+					if (superName == null || !visited.add(superName)) continue;
+
+					// unmapped classes in between, e.g. from Forge, are walked through as well
+					ClassDef classDef = byTargetName.get(superName);
+					if (classDef != null) classes.add(classDef.getName(mappings.getSourceNamespace()));
+					queue.add(superName);
+				}
+			}
+		}
+
+		Log.debug(LogCategory.MOD_REMAP, "Pruned mappings to %d of %d classes (%d referenced) in %.1f ms",
+				classes.size(), byTargetName.size(), referenced.size(), (System.nanoTime() - startTime) * 1e-6);
+
+		return TinyRemapperMappingsHelper.create(mappings, classes);
+	}
+
+	private void scanClass(byte[] data, Set<String> unmapped) {
+		if (data.length < 10 || (data[0] & 0xff) != 0xca || (data[1] & 0xff) != 0xfe || (data[2] & 0xff) != 0xba || (data[3] & 0xff) != 0xbe) {
+			throw new IllegalArgumentException("Not a class file");
+		}
+
+		int count = readUnsignedShort(data, 8);
+		char[] buffer = new char[64];
+
+		for (int i = 1, pos = 10; i < count; i++) {
+			int tag = data[pos] & 0xff;
+
+			switch (tag) {
+			case CONSTANT_UTF8: {
+				int length = readUnsignedShort(data, pos + 1);
+				if (buffer.length < length) buffer = new char[length];
+				addNames(readUtf8(data, pos + 3, length, buffer), unmapped);
+				pos += 3 + length;
+				break;
+			}
+			case 7: case 8: case 16: case 19: case 20: // class, string, method type, module, package
+				pos += 3;
+				break;
+			case 15: // method handle
+				pos += 4;
+				break;
+			case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // 4 byte values and references
+				pos += 5;
+				break;
+			case 5: case 6: // long and double take two slots
+				pos += 9;
+				i++;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+			}
+		}
+	}
+
+	/**
+	 * Adds every mapped class named in {@code value}, as plain or dotted name or within descriptors and signatures,
+	 * other tokens go to {@code unmapped}.
+	 */
+	private void addNames(String value, Set<String> unmapped) {
+		int start = 0;
+
+		for (int i = 0; i <= value.length(); i++) {
+			if (i < value.length() && !isDelimiter(value.charAt(i))) continue;
+
+			// signature wildcards, not a delimiter since - may appear in class names
+			while (start < i && (value.charAt(start) == '-' || value.charAt(start) == '+')) start++;
+
+			if (i - start > 1) {
+				String token = value.substring(start, i);
+				addName(token, unmapped);
+				if (token.charAt(0) == 'L') addName(token.substring(1), unmapped);
+			}
+
+			start = i + 1;
+		}
+	}
+
+	private void addName(String name, Set<String> unmapped) {
+		if (mappings.getClass(name) == null) {
+			String slashed = name.indexOf('.') >= 0 ? name.replace('.', '/') : null;
+
+			if (slashed == null || mappings.getClass(slashed) == null) {
+				unmapped.add(name);
+				return;
+			}
+
+			name = slashed;
+		}
+
+		if (!referenced.add(name)) return;
+
+		// outer classes may be consulted for names of inner classes
+		for (int i = name.lastIndexOf('$'); i > 0; i = name.lastIndexOf('$', i - 1)) {
+			String outer = name.substring(0, i);
+			if (mappings.getClass(outer) != null) referenced.add(outer);
+		}
+	}
+
+	private static boolean isDelimiter(char c) {
+		switch (c) {
+		case ';': case '(': case ')': case '[': case '<': case '>': case ':': case '*': case '^': case '"': case '\'': case ',':
+			return true;
+		default:
+			return Character.isWhitespace(c);
+		}
+	}
+
+	private static int readUnsignedShort(byte[] data, int pos) {
+		return (data[pos] & 0xff) << 8 | data[pos + 1] & 0xff;
+	}
+
+	/**
+	 * Decodes the modified UTF-8 of class files.
+	 */
+	private static String readUtf8(byte[] data, int pos, int length, char[] buffer) {
+		int end = pos + length;
+		int len = 0;
+
+		while (pos < end) {
+			int b = data[pos++];
+
+			if ((b & 0x80) == 0) {
+				buffer[len++] = (char) (b & 0x7f);
+			} else if ((b & 0xe0) == 0xc0) {
+				buffer[len++] = (char) (((b & 0x1f) << 6) + (data[pos++] & 0x3f));
+			} else {
+				buffer[len++] = (char) (((b & 0xf) << 12) + ((data[pos++] & 0x3f) << 6) + (data[pos++] & 0x3f));
+			}
+		}
+
+		return new String(buffer, 0, len);
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+
+		while ((len = is.read(buffer)) >= 0) {
+			ret.write(buffer, 0, len);
+		}
+
+		return ret.toByteArray();
+	}
+}
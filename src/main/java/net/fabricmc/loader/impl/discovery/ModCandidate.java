@@ -286,7 +286,7 @@ public final class ModCandidate implements DomainObject.Mod {
 		}
 	}
 
-	private ByteBuffer getData() throws IOException {
+	ByteBuffer getData() throws IOException {
 		SoftReference<ByteBuffer> dataRef = this.dataRef;
 
 		if (dataRef != null) {
@@ -26,12 +26,14 @@ import net.minecraftforge.fml.loading.FMLLoader;
 import xyz.wagyourtail.fabriconforge.FabricLoaderEarlyRiser;
 import xyz.wagyourtail.fabriconforge.loader.FabricLoaderImpl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
@@ -43,6 +45,7 @@ public final class ModDiscoverer {
 	private final EnvType envType = FabricLoaderImpl.INSTANCE.getEnvironmentType();
 	private final Map<Long, ModScanTask> jijDedupMap = new ConcurrentHashMap<>(); // avoids reading the same jar twice
 	private final List<NestedModInitData> nestedModInitDatas = Collections.synchronizedList(new ArrayList<>()); // breaks potential cycles from deduplication
+	private DiscoveryCache cache;
 
 	public void addCandidateFinder(ModCandidateFinder f) {
 		candidateFinders.add(f);
@@ -50,6 +53,7 @@ public final class ModDiscoverer {
 
 	public Collection<ModCandidate> discoverMods(FabricLoaderImpl loader) throws ModResolutionException {
 		long startTime = System.nanoTime();
+		cache = DiscoveryCache.load(loader.getGameDir().resolve(FabricLoaderImpl.CACHE_DIR_NAME), envType);
 		ForkJoinPool pool = new ForkJoinPool();
 		List<Future<ModCandidate>> futures = new ArrayList<>();
 
@@ -118,6 +122,12 @@ public final class ModDiscoverer {
 			throw exception;
 		}
 
+		try {
+			cache.save();
+		} catch (IOException e) {
+			Log.warn(LogCategory.DISCOVERY, "Failed to save discovery cache", e);
+		}
+
 		// initialize parent data
 
 		Queue<ModCandidate> queue = new ArrayDeque<>(candidates);
@@ -133,7 +143,8 @@ public final class ModDiscoverer {
 
 		long endTime = System.nanoTime();
 
-		Log.debug(LogCategory.DISCOVERY, "Mod discovery time: %.1f ms", (endTime - startTime) * 1e-6);
+		Log.debug(LogCategory.DISCOVERY, "Mod discovery time: %.1f ms, discovery cache: %d hits, %d misses",
+				(endTime - startTime) * 1e-6, cache.getHits(), cache.getMisses());
 
 		return candidates;
 	}
@@ -146,6 +157,8 @@ public final class ModDiscoverer {
 		private final long hash;
 		private final boolean requiresRemap;
 		private final List<String> parentPaths;
+		private final DiscoveryCache.Node node;
+		private final boolean cached;
 
 		ModScanTask(Path path, boolean requiresRemap) {
 			this(path, null, null, -1, requiresRemap, Collections.emptyList());
@@ -159,12 +172,27 @@ public final class ModDiscoverer {
 			this.hash = hash;
 			this.requiresRemap = requiresRemap;
 			this.parentPaths = parentPaths;
+			this.node = new DiscoveryCache.Node(this.localPath, hash);
+			this.cached = false;
+		}
+
+		private ModScanTask(DiscoveryCache.Node node, boolean requiresRemap, List<String> parentPaths) {
+			this.path = null;
+			this.localPath = node.localPath;
+			this.is = null;
+			this.hash = node.hash;
+			this.requiresRemap = requiresRemap;
+			this.parentPaths = parentPaths;
+			this.node = node;
+			this.cached = true;
 		}
 
 		@Override
 		protected ModCandidate compute() {
 			try {
-				if (is != null) {
+				if (cached) {
+					return computeCached(node);
+				} else if (is != null) {
 					return computeJarStream();
 				} else if (Files.isDirectory(path)) {
 					return computeDir();
@@ -194,6 +222,17 @@ public final class ModDiscoverer {
 		}
 
 		private ModCandidate computeJarFile() throws IOException, ParseMetadataException {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			DiscoveryCache.Node cachedNode = cache.get(path, attributes);
+			if (cachedNode != null) return computeCached(cachedNode);
+
+			ModCandidate ret = scanJarFile();
+			cache.put(path, attributes, node);
+
+			return ret;
+		}
+
+		private ModCandidate scanJarFile() throws IOException, ParseMetadataException {
 			try (ZipFile zf = new ZipFile(path.toFile())) {
 				ZipEntry entry = zf.getEntry("fabric.mod.json");
 				if (entry == null) return null;
@@ -201,7 +240,7 @@ public final class ModDiscoverer {
 				LoaderModMetadata metadata;
 
 				try (InputStream is = zf.getInputStream(entry)) {
-					metadata = ModMetadataParser.parseMetadata(is, localPath, parentPaths);
+					metadata = parseMetadata(is);
 				}
 
 				if (!metadata.loadsInEnvironment(envType)) {
@@ -247,6 +286,8 @@ public final class ModDiscoverer {
 					if (!nestedJarPaths.isEmpty() && FabricLoaderImpl.INSTANCE.isDevelopmentEnvironment()) {
 						Log.warn(LogCategory.METADATA, "Mod %s %s references missing nested jars: %s", metadata.getId(), metadata.getVersion(), nestedJarPaths);
 					}
+
+					node.children = getNodes(nestedModTasks);
 				}
 
 				List<ModCandidate> nestedMods;
@@ -269,7 +310,7 @@ public final class ModDiscoverer {
 			try (ZipInputStream zis = new ZipInputStream(is)) {
 				while ((entry = zis.getNextEntry()) != null) {
 					if (entry.getName().equals("fabric.mod.json")) {
-						metadata = ModMetadataParser.parseMetadata(zis, localPath, parentPaths);
+						metadata = parseMetadata(zis);
 						break;
 					}
 				}
@@ -325,6 +366,8 @@ public final class ModDiscoverer {
 				if (!nestedJarPaths.isEmpty() && FabricLoaderImpl.INSTANCE.isDevelopmentEnvironment()) {
 					Log.warn(LogCategory.METADATA, "Mod %s %s references missing nested jars: %s", metadata.getId(), metadata.getVersion(), nestedJarPaths);
 				}
+
+				node.children = getNodes(nestedModTasks);
 			}
 
 			List<ModCandidate> nestedMods;
@@ -342,6 +385,42 @@ public final class ModDiscoverer {
 			return ret;
 		}
 
+		/**
+		 * Creates the candidate from a recorded scan, the jar and its nested jars are only read once their data is needed.
+		 */
+		private ModCandidate computeCached(DiscoveryCache.Node node) throws ParseMetadataException {
+			if (node.metadata == null) return null;
+
+			LoaderModMetadata metadata = ModMetadataParser.parseMetadata(new ByteArrayInputStream(node.metadata), localPath, parentPaths);
+
+			if (!metadata.loadsInEnvironment(envType)) {
+				return null;
+			}
+
+			List<ModScanTask> nestedModTasks = computeCachedNestedMods(node.children);
+			List<ModCandidate> nestedMods;
+
+			if (nestedModTasks.isEmpty()) {
+				nestedMods = Collections.emptyList();
+			} else {
+				nestedMods = new ArrayList<>();
+				nestedModInitDatas.add(new NestedModInitData(nestedModTasks, nestedMods));
+			}
+
+			if (path != null) {
+				return ModCandidate.createPlain(path, metadata, requiresRemap, nestedMods);
+			} else {
+				return ModCandidate.createNested(localPath, hash, metadata, requiresRemap, nestedMods);
+			}
+		}
+
+		private LoaderModMetadata parseMetadata(InputStream is) throws IOException, ParseMetadataException {
+			ByteBuffer data = readMod(is);
+			node.metadata = Arrays.copyOf(data.array(), data.limit());
+
+			return ModMetadataParser.parseMetadata(new ByteArrayInputStream(node.metadata), localPath, parentPaths);
+		}
+
 		private List<ModScanTask> computeNestedMods(ZipEntrySource entrySource) throws IOException {
 			List<String> parentPaths = new ArrayList<>(this.parentPaths.size() + 1);
 			parentPaths.addAll(this.parentPaths);
@@ -377,6 +456,50 @@ public final class ModDiscoverer {
 
 			return tasks;
 		}
+
+		private List<ModScanTask> computeCachedNestedMods(List<DiscoveryCache.Node> nodes) {
+			if (nodes.isEmpty()) return Collections.emptyList();
+
+			List<String> parentPaths = new ArrayList<>(this.parentPaths.size() + 1);
+			parentPaths.addAll(this.parentPaths);
+			parentPaths.add(localPath);
+
+			List<ModScanTask> tasks = new ArrayList<>(nodes.size());
+			ModScanTask localTask = null;
+
+			for (DiscoveryCache.Node child : nodes) {
+				ModScanTask task = jijDedupMap.get(child.hash);
+
+				if (task == null) {
+					task = new ModScanTask(child, requiresRemap, parentPaths);
+					ModScanTask prev = jijDedupMap.putIfAbsent(child.hash, task);
+
+					if (prev != null) {
+						task = prev;
+					} else if (localTask == null) { // don't fork first task, leave it for this thread
+						localTask = task;
+					} else {
+						task.fork();
+					}
+				}
+
+				tasks.add(task);
+			}
+
+			if (localTask != null) localTask.invoke();
+
+			return tasks;
+		}
+	}
+
+	private static List<DiscoveryCache.Node> getNodes(List<ModScanTask> tasks) {
+		List<DiscoveryCache.Node> ret = new ArrayList<>(tasks.size());
+
+		for (ModScanTask task : tasks) {
+			ret.add(task.node);
+		}
+
+		return ret;
 	}
 
 	private static boolean isValidNestedJarEntry(ZipEntry entry) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records what each remapped jar in the processed mods folder was produced from, so unchanged mods can be reused
+ * without running the remapper again.
+ *
+ * <p>One line per output jar: file name, input content hash, mapping fingerprint and loader version, tab separated.
+ */
+final class RemapManifest {
+	static final String FILE_NAME = "manifest.tsv";
+
+	private final Path outputDir;
+	private final Path file;
+	private final Map<String, Entry> entries = new TreeMap<>();
+
+	private RemapManifest(Path outputDir) {
+		this.outputDir = outputDir;
+		this.file = outputDir.resolve(FILE_NAME);
+	}
+
+	static RemapManifest load(Path outputDir) {
+		RemapManifest ret = new RemapManifest(outputDir);
+		if (!Files.isRegularFile(ret.file)) return ret;
+
+		try (BufferedReader reader = Files.newBufferedReader(ret.file, StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				if (parts.length != 4) continue;
+
+				ret.entries.put(parts[0], new Entry(parts[1], parts[2], parts[3]));
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.MOD_REMAP, "Failed to read remap manifest %s, remapping all mods", ret.file, e);
+			ret.entries.clear();
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Whether {@code output} exists and was produced from the same input, mappings and loader version.
+	 */
+	synchronized boolean isUpToDate(Path output, String inputHash, String mappingFingerprint, String loaderVersion) {
+		Entry entry = entries.get(output.getFileName().toString());
+
+		return entry != null
+				&& entry.inputHash.equals(inputHash)
+				&& entry.mappingFingerprint.equals(mappingFingerprint)
+				&& entry.loaderVersion.equals(loaderVersion)
+				&& Files.isRegularFile(output);
+	}
+
+	synchronized void put(Path output, String inputHash, String mappingFingerprint, String loaderVersion) {
+		entries.put(output.getFileName().toString(), new Entry(inputHash, mappingFingerprint, loaderVersion));
+	}
+
+	synchronized void remove(Path output) {
+		entries.remove(output.getFileName().toString());
+	}
+
+	synchronized void save() throws IOException {
+		// forget jars that were deleted in the meantime
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+			if (!Files.isRegularFile(outputDir.resolve(it.next()))) it.remove();
+		}
+
+		Files.createDirectories(outputDir);
+		Path tmp = Files.createTempFile(outputDir, FILE_NAME, ".tmp");
+
+		try {
+			try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (Map.Entry<String, Entry> e : entries.entrySet()) {
+					Entry entry = e.getValue();
+					writer.write(String.join("\t", e.getKey(), entry.inputHash, entry.mappingFingerprint, entry.loaderVersion));
+					writer.write('\n');
+				}
+			}
+
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static final class Entry {
+		final String inputHash;
+		final String mappingFingerprint;
+		final String loaderVersion;
+
+		Entry(String inputHash, String mappingFingerprint, String loaderVersion) {
+			this.inputHash = inputHash;
+			this.mappingFingerprint = mappingFingerprint;
+			this.loaderVersion = loaderVersion;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits mods into groups that can be remapped by independent tiny-remapper instances.
+ *
+ * <p>Mods referencing each other's classes, directly or through other mods, or defining the same class end up in the
+ * same group, so every instance sees exactly the hierarchy a single instance over all mods would for its inputs.
+ * Groups are packed into a bounded number of partitions by input size since every instance reads the remap
+ * classpath on its own.
+ */
+final class RemapPartitioner {
+	private RemapPartitioner() { }
+
+	/**
+	 * Classes defined and names referenced by a mod, as collected by {@link MappingPruner#scan}.
+	 */
+	static final class ModClasses {
+		final Set<String> defined = new HashSet<>();
+		final Set<String> referenced = new HashSet<>();
+		long size;
+	}
+
+	/**
+	 * @param remapped which mods get remapped, groups without any are left out since only their classpath is needed
+	 * @return partitions of indices into {@code mods}, each in ascending order
+	 */
+	static List<List<Integer>> partition(List<ModClasses> mods, boolean[] remapped, int maxPartitions) {
+		int[] parents = new int[mods.size()];
+		Map<String, Integer> owners = new HashMap<>();
+
+		for (int i = 0; i < parents.length; i++) {
+			parents[i] = i;
+
+			for (String name : mods.get(i).defined) {
+				Integer owner = owners.putIfAbsent(name, i);
+				if (owner != null) union(parents, owner, i);
+			}
+		}
+
+		for (int i = 0; i < parents.length; i++) {
+			for (String name : mods.get(i).referenced) {
+				Integer owner = owners.get(name);
+				if (owner != null) union(parents, owner, i);
+			}
+		}
+
+		Map<Integer, Group> groups = new HashMap<>();
+
+		for (int i = 0; i < parents.length; i++) {
+			Group group = groups.computeIfAbsent(find(parents, i), ignore -> new Group());
+			group.mods.add(i);
+			group.size += mods.get(i).size;
+			group.remapped |= remapped[i];
+		}
+
+		// largest groups first, each onto the currently smallest partition
+		List<Group> sorted = new ArrayList<>(groups.values());
+		sorted.removeIf(g -> !g.remapped);
+		sorted.sort(Comparator.comparingLong((Group g) -> g.size).reversed().thenComparingInt(g -> g.mods.get(0)));
+
+		List<Group> partitions = new ArrayList<>();
+
+		for (Group group : sorted) {
+			if (partitions.size() < Math.max(1, maxPartitions)) {
+				partitions.add(group);
+				continue;
+			}
+
+			Group smallest = partitions.get(0);
+
+			for (Group partition : partitions) {
+				if (partition.size < smallest.size) smallest = partition;
+			}
+
+			smallest.mods.addAll(group.mods);
+			smallest.size += group.size;
+		}
+
+		List<List<Integer>> ret = new ArrayList<>(partitions.size());
+
+		for (Group partition : partitions) {
+			partition.mods.sort(null);
+			ret.add(partition.mods);
+		}
+
+		ret.sort(Comparator.comparingInt(p -> p.get(0)));
+
+		return ret;
+	}
+
+	/**
+	 * Marks every mod referencing or redefining a class of a marked mod, directly or through other mods.
+	 */
+	static void addDependents(List<ModClasses> mods, boolean[] marked) {
+		Set<String> markedClasses = new HashSet<>();
+
+		for (int i = 0; i < marked.length; i++) {
+			if (marked[i]) markedClasses.addAll(mods.get(i).defined);
+		}
+
+		boolean changed;
+
+		do {
+			changed = false;
+
+			for (int i = 0; i < marked.length; i++) {
+				if (marked[i]) continue;
+
+				ModClasses mod = mods.get(i);
+
+				if (intersects(mod.referenced, markedClasses) || intersects(mod.defined, markedClasses)) {
+					marked[i] = true;
+					markedClasses.addAll(mod.defined);
+					changed = true;
+				}
+			}
+		} while (changed);
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		for (String name : a) {
+			if (b.contains(name)) return true;
+		}
+
+		return false;
+	}
+
+	private static int find(int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+
+		return i;
+	}
+
+	private static void union(int[] parents, int a, int b) {
+		a = find(parents, a);
+		b = find(parents, b);
+
+		if (a != b) parents[Math.max(a, b)] = Math.min(a, b);
+	}
+
+	private static final class Group {
+		final List<Integer> mods = new ArrayList<>();
+		long size;
+		boolean remapped;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Time and bytes spent per mod and remap stage, written to {@code .fabric/remap-report.json} after each run.
+ *
+ * <p>Stage times are the time the stage's tasks ran, input reading is the wall time until tiny-remapper finished
+ * reading the mod since those reads overlap. Bytes are the data each stage processed or produced.
+ */
+final class RemapReport {
+	static final String FILE_NAME = "remap-report.json";
+
+	static final String MAPPING_SCAN = "mapping scan";
+	static final String INPUT_READ = "input read";
+	static final String APPLY = "apply";
+	static final String NON_CLASS_COPY = "non-class copy";
+	static final String REFMAP = "refmap rewrite";
+	static final String ACCESS_WIDENER = "access widener";
+	static final String CLOSE = "close";
+
+	private final long startTime = System.nanoTime();
+	private final Map<String, Map<String, StageStats>> mods = new LinkedHashMap<>();
+	private final List<String> reused = new ArrayList<>();
+
+	synchronized void addReused(String mod) {
+		reused.add(mod);
+	}
+
+	synchronized void record(String mod, String stage, long nanos, long bytes) {
+		StageStats stats = mods.computeIfAbsent(mod, ignore -> new LinkedHashMap<>()).computeIfAbsent(stage, ignore -> new StageStats());
+		stats.nanos += nanos;
+		stats.bytes += bytes;
+	}
+
+	synchronized void addBytes(String mod, String stage, long bytes) {
+		record(mod, stage, 0, bytes);
+	}
+
+	/**
+	 * Wraps {@code task} to add its run time to {@code stage} of {@code mod}.
+	 */
+	<T> Callable<T> time(String mod, String stage, Callable<T> task) {
+		return () -> {
+			long start = System.nanoTime();
+
+			try {
+				return task.call();
+			} finally {
+				record(mod, stage, System.nanoTime() - start, 0);
+			}
+		};
+	}
+
+	synchronized void write(Path cacheDir, int threads, boolean lazy) {
+		double wallTime = (System.nanoTime() - startTime) * 1e-6;
+		Map<String, StageStats> totals = new LinkedHashMap<>();
+		long bytesIn = 0;
+		long bytesOut = 0;
+
+		JsonObject modsJson = new JsonObject();
+
+		for (Map.Entry<String, Map<String, StageStats>> mod : mods.entrySet()) {
+			JsonObject stagesJson = new JsonObject();
+			long modNanos = 0;
+
+			for (Map.Entry<String, StageStats> stage : mod.getValue().entrySet()) {
+				StageStats stats = stage.getValue();
+				stagesJson.add(stage.getKey(), stats.toJson());
+				modNanos += stats.nanos;
+
+				StageStats total = totals.computeIfAbsent(stage.getKey(), ignore -> new StageStats());
+				total.nanos += stats.nanos;
+				total.bytes += stats.bytes;
+			}
+
+			JsonObject modJson = new JsonObject();
+			modJson.addProperty("timeMs", round(modNanos * 1e-6));
+			modJson.add("stages", stagesJson);
+			modsJson.add(mod.getKey(), modJson);
+		}
+
+		JsonObject totalsJson = new JsonObject();
+		String slowestStage = null;
+		long slowestNanos = -1;
+
+		for (Map.Entry<String, StageStats> stage : totals.entrySet()) {
+			totalsJson.add(stage.getKey(), stage.getValue().toJson());
+
+			if (stage.getValue().nanos > slowestNanos) {
+				slowestStage = stage.getKey();
+				slowestNanos = stage.getValue().nanos;
+			}
+		}
+
+		if (totals.containsKey(INPUT_READ)) bytesIn = totals.get(INPUT_READ).bytes;
+		if (totals.containsKey(CLOSE)) bytesOut = totals.get(CLOSE).bytes;
+
+		JsonArray reusedJson = new JsonArray();
+		for (String mod : reused) reusedJson.add(mod);
+
+		JsonObject report = new JsonObject();
+		report.addProperty("wallTimeMs", round(wallTime));
+		report.addProperty("threads", threads);
+		report.addProperty("lazy", lazy);
+		report.add("reused", reusedJson);
+		report.add("stages", totalsJson);
+		report.add("mods", modsJson);
+
+		Path file = cacheDir.resolve(FILE_NAME);
+
+		try {
+			Files.createDirectories(cacheDir);
+			Path tmp = Files.createTempFile(cacheDir, FILE_NAME, ".tmp");
+
+			try {
+				try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+					GSON.toJson(report, writer);
+				}
+
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException e) {
+			Log.warn(LogCategory.MOD_REMAP, "Failed to write remap report %s", file, e);
+		}
+
+		Log.info(LogCategory.MOD_REMAP, "Remapped %d mods (%d reused) in %.1f ms, %.1f MiB in, %.1f MiB out, slowest stage %s (%.1f ms), see %s",
+				mods.size(), reused.size(), wallTime, bytesIn / 1048576.0, bytesOut / 1048576.0,
+				slowestStage != null ? slowestStage : "none", Math.max(slowestNanos, 0) * 1e-6, file);
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 10) / 10.0;
+	}
+
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+	private static final class StageStats {
+		long nanos;
+		long bytes;
+
+		JsonObject toJson() {
+			JsonObject ret = new JsonObject();
+			ret.addProperty("timeMs", round(nanos * 1e-6));
+			ret.addProperty("bytes", bytes);
+
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.SystemProperties;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker pool running the per-mod stages of mod remapping, stages of different mods overlap freely.
+ *
+ * <p>Each stage tracks how many tasks are queued and running, the deepest its queue got and the time tasks spent
+ * waiting for a worker and running, which is logged by {@link #logMetrics()}.
+ */
+final class RemapScheduler implements AutoCloseable {
+	private final int parallelism;
+	private final ExecutorService executor;
+	private final Map<String, Stage> stages = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	RemapScheduler() {
+		this(Integer.getInteger(SystemProperties.REMAP_THREADS, Runtime.getRuntime().availableProcessors()));
+	}
+
+	RemapScheduler(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+		AtomicInteger threadCounter = new AtomicInteger();
+		ThreadFactory threadFactory = r -> {
+			Thread ret = new Thread(r, "Mod Remapper " + threadCounter.incrementAndGet());
+			ret.setDaemon(true);
+			return ret;
+		};
+
+		this.executor = Executors.newFixedThreadPool(this.parallelism, threadFactory);
+	}
+
+	int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Queues {@code task} as part of {@code stage} once {@code dependency} completed successfully.
+	 */
+	<T> CompletableFuture<T> submit(String stage, CompletableFuture<?> dependency, Callable<T> task) {
+		Stage s = stages.computeIfAbsent(stage, Stage::new);
+		long[] enqueueTime = new long[1];
+
+		return dependency.thenApplyAsync(ignore -> {
+			long startTime = System.nanoTime();
+			s.start(startTime - enqueueTime[0]);
+
+			try {
+				return task.call();
+			} catch (Exception e) {
+				throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+			} finally {
+				s.end(startTime);
+			}
+		}, command -> {
+			enqueueTime[0] = System.nanoTime();
+			s.enqueue();
+			executor.execute(command);
+		});
+	}
+
+	<T> CompletableFuture<T> submit(String stage, Callable<T> task) {
+		return submit(stage, CompletableFuture.completedFuture(null), task);
+	}
+
+	void logMetrics() {
+		synchronized (stages) {
+			for (Stage stage : stages.values()) {
+				Log.debug(LogCategory.MOD_REMAP, "Remap stage %s: %d tasks, max queue %d, waited %.1f ms, ran %.1f ms",
+						stage.name, stage.completed.get(), stage.maxQueued.get(), stage.waitNanos.get() * 1e-6, stage.runNanos.get() * 1e-6);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private static final class Stage {
+		final String name;
+		final AtomicInteger queued = new AtomicInteger();
+		final AtomicInteger maxQueued = new AtomicInteger();
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicLong waitNanos = new AtomicLong();
+		final AtomicLong runNanos = new AtomicLong();
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		void enqueue() {
+			maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+		}
+
+		void start(long waitTime) {
+			queued.decrementAndGet();
+			waitNanos.addAndGet(waitTime);
+		}
+
+		void end(long startTime) {
+			runNanos.addAndGet(System.nanoTime() - startTime);
+			completed.incrementAndGet();
+		}
+	}
+}
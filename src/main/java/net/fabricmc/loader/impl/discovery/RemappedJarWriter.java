@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal zip writer for remapped mod jars.
+ *
+ * <p>New entries are deflated from memory, unchanged entries of the input jar are copied as their raw compressed
+ * bytes, keeping method, CRC and sizes, so resources are never inflated and compressed again. Zip64 is not
+ * supported, {@link #readEntries} rejects such inputs so callers can fall back to copying entry contents.
+ */
+final class RemappedJarWriter implements Closeable {
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIR = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+	private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+	private static final int FLAG_UTF8 = 1 << 11;
+	private static final int DOS_EPOCH = 0x21 << 16; // 1980-01-01 00:00, keeps output reproducible
+	private static final long MAX_SIZE = 0xffffffffL;
+
+	private final FileChannel out;
+	private final ByteArrayOutputStream centralDir = new ByteArrayOutputStream();
+	private final Set<String> names = new HashSet<>();
+	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private boolean closed;
+
+	RemappedJarWriter(Path file) throws IOException {
+		this.out = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Adds a new entry, later entries with an already written name are ignored.
+	 */
+	synchronized void write(String name, byte[] data) throws IOException {
+		if (!names.add(name)) return;
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+		byte[] buffer = new byte[8192];
+
+		while (!deflater.finished()) {
+			compressed.write(buffer, 0, deflater.deflate(buffer));
+		}
+
+		byte[] rawName = name.getBytes(StandardCharsets.UTF_8);
+		int method = 8;
+		byte[] payload = compressed.toByteArray();
+
+		// tiny or incompressible entries are smaller stored
+		if (payload.length >= data.length) {
+			method = 0;
+			payload = data;
+		}
+
+		writeEntry(rawName, FLAG_UTF8, method, DOS_EPOCH, (int) crc.getValue(), payload.length, data.length, 0);
+		writeFully(ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Copies {@code entry} of {@code source} without decompressing it.
+	 */
+	synchronized void copyRaw(FileChannel source, SourceEntry entry) throws IOException {
+		if (!names.add(entry.name)) return;
+
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(source, header, entry.localHeaderOffset);
+
+		if (header.getInt(0) != LOCAL_HEADER) throw new ZipException("Invalid local header for " + entry.name);
+
+		long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+
+		// sizes and CRC come from the central directory and go into the local header, no descriptor needed
+		writeEntry(entry.rawName, entry.flags & ~FLAG_DATA_DESCRIPTOR, entry.method, entry.dosTime, entry.crc, entry.compressedSize, entry.size, entry.externalAttributes);
+
+		for (long pos = 0; pos < entry.compressedSize; ) {
+			long count = source.transferTo(dataOffset + pos, entry.compressedSize - pos, out);
+			if (count <= 0) throw new ZipException("Truncated entry " + entry.name);
+			pos += count;
+		}
+	}
+
+	private void writeEntry(byte[] rawName, int flags, int method, int dosTime, int crc, long compressedSize, long size, int externalAttributes) throws IOException {
+		long offset = out.position();
+
+		if (offset > MAX_SIZE || compressedSize > MAX_SIZE || size > MAX_SIZE || names.size() > 0xffff) {
+			throw new ZipException("Remapped jar too large, zip64 is not supported");
+		}
+
+		ByteBuffer local = ByteBuffer.allocate(LOCAL_HEADER_SIZE + rawName.length).order(ByteOrder.LITTLE_ENDIAN);
+		local.putInt(LOCAL_HEADER).putShort((short) 20).putShort((short) flags).putShort((short) method).putInt(dosTime)
+				.putInt(crc).putInt((int) compressedSize).putInt((int) size).putShort((short) rawName.length).putShort((short) 0)
+				.put(rawName).flip();
+		writeFully(local);
+
+		ByteBuffer central = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + rawName.length).order(ByteOrder.LITTLE_ENDIAN);
+		central.putInt(CENTRAL_HEADER).putShort((short) 20).putShort((short) 20).putShort((short) flags).putShort((short) method)
+				.putInt(dosTime).putInt(crc).putInt((int) compressedSize).putInt((int) size).putShort((short) rawName.length)
+				.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(externalAttributes)
+				.putInt((int) offset).put(rawName);
+		centralDir.write(central.array(), 0, central.capacity());
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+
+		try {
+			long offset = out.position();
+			byte[] dir = centralDir.toByteArray();
+
+			if (offset > MAX_SIZE) throw new ZipException("Remapped jar too large, zip64 is not supported");
+
+			writeFully(ByteBuffer.wrap(dir));
+
+			ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			end.putInt(END_OF_CENTRAL_DIR).putShort((short) 0).putShort((short) 0).putShort((short) names.size()).putShort((short) names.size())
+					.putInt(dir.length).putInt((int) offset).putShort((short) 0).flip();
+			writeFully(end);
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new ZipException("Unexpected end of zip file");
+		}
+	}
+
+	/**
+	 * Reads the central directory of {@code source}.
+	 *
+	 * @throws ZipException if the file isn't a plain zip file this writer can copy from, e.g. zip64
+	 */
+	static List<SourceEntry> readEntries(FileChannel source) throws IOException {
+		long size = source.size();
+		int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIR_SIZE + 0xffff);
+		ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(source, tail, size - tailSize);
+
+		int end = -1;
+
+		for (int i = tailSize - END_OF_CENTRAL_DIR_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_OF_CENTRAL_DIR) {
+				end = i;
+				break;
+			}
+		}
+
+		if (end < 0) throw new ZipException("No end of central directory found");
+
+		int count = tail.getShort(end + 10) & 0xffff;
+		long dirSize = tail.getInt(end + 12) & MAX_SIZE;
+		long dirOffset = tail.getInt(end + 16) & MAX_SIZE;
+
+		if (count == 0xffff || dirSize == MAX_SIZE || dirOffset == MAX_SIZE || dirOffset + dirSize > size) {
+			throw new ZipException("Unsupported zip64 or prefixed zip file");
+		}
+
+		ByteBuffer dir = ByteBuffer.allocate((int) dirSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(source, dir, dirOffset);
+		List<SourceEntry> ret = new ArrayList<>(count);
+
+		for (int pos = 0, i = 0; i < count; i++) {
+			if (pos + CENTRAL_HEADER_SIZE > dirSize || dir.getInt(pos) != CENTRAL_HEADER) throw new ZipException("Invalid central directory");
+
+			SourceEntry entry = new SourceEntry();
+			entry.flags = dir.getShort(pos + 8) & 0xffff;
+			entry.method = dir.getShort(pos + 10) & 0xffff;
+			entry.dosTime = dir.getInt(pos + 12);
+			entry.crc = dir.getInt(pos + 16);
+			entry.compressedSize = dir.getInt(pos + 20) & MAX_SIZE;
+			entry.size = dir.getInt(pos + 24) & MAX_SIZE;
+			int nameLength = dir.getShort(pos + 28) & 0xffff;
+			int extraLength = dir.getShort(pos + 30) & 0xffff;
+			int commentLength = dir.getShort(pos + 32) & 0xffff;
+			entry.externalAttributes = dir.getInt(pos + 38);
+			entry.localHeaderOffset = dir.getInt(pos + 42) & MAX_SIZE;
+
+			if (entry.compressedSize == MAX_SIZE || entry.size == MAX_SIZE || entry.localHeaderOffset == MAX_SIZE) {
+				throw new ZipException("Unsupported zip64 entry");
+			}
+
+			if ((entry.flags & 1) != 0) throw new ZipException("Unsupported encrypted entry");
+
+			entry.rawName = new byte[nameLength];
+			dir.position(pos + CENTRAL_HEADER_SIZE);
+			dir.get(entry.rawName);
+			entry.name = new String(entry.rawName, StandardCharsets.UTF_8);
+
+			ret.add(entry);
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+
+		return ret;
+	}
+
+	static final class SourceEntry {
+		String name;
+		byte[] rawName;
+		int flags;
+		int method;
+		int dosTime;
+		int crc;
+		long compressedSize;
+		long size;
+		int externalAttributes;
+		long localHeaderOffset;
+
+		boolean isDirectory() {
+			return name.endsWith("/");
+		}
+	}
+}
@@ -18,38 +18,52 @@ package net.fabricmc.loader.impl.discovery;
 
 import com.google.gson.*;
 import net.fabricmc.api.EnvType;
+import net.fabricmc.loader.impl.transformer.AccessWidenerIndex;
 import net.fabricmc.loader.impl.util.FileSystemUtil;
+import net.fabricmc.loader.impl.util.HashUtil;
 import net.fabricmc.loader.impl.util.SystemProperties;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
-import net.fabricmc.loader.impl.util.mappings.TinyRemapperMappingsHelper;
+import net.fabricmc.loader.impl.util.mappings.MappingIndex;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.MethodDef;
-import net.fabricmc.mapping.tree.TinyTree;
+import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.InputTag;
-import net.fabricmc.tinyremapper.NonClassCopyMode;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import org.objectweb.asm.commons.Remapper;
 import xyz.wagyourtail.fabriconforge.FabricLoaderEarlyRiser;
+import xyz.wagyourtail.fabriconforge.loader.FabricLoaderImpl;
 
 import java.io.*;
 import java.net.URISyntaxException;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
 
 public final class RuntimeModRemapper {
-	public static void remap(Collection<ModCandidate> modCandidates, Path tmpDir, Path outputDir) {
+	private static final String REFMAP_CACHE_DIR_NAME = "refmaps";
+
+	public static void remap(Collection<ModCandidate> modCandidates, Path cacheDir, Path tmpDir, Path outputDir) {
 		List<ModCandidate> modsToRemap = new ArrayList<>();
-		TinyTree mappings = FabricLoaderEarlyRiser.getMappings();
-		if (mappings == null) return;
+		MappingIndex mappings = FabricLoaderImpl.INSTANCE.getMappingConfiguration().getIndex("intermediary", "named");
+		if (mappings.getMappings() == null) return;
 
 		for (ModCandidate mod : modCandidates) {
 			if (mod.getRequiresRemap()) {
@@ -59,128 +73,357 @@ public final class RuntimeModRemapper {
 
 		if (modsToRemap.isEmpty()) return;
 
-		TinyRemapper remapper = TinyRemapper.newRemapper()
-				.withMappings(TinyRemapperMappingsHelper.create(mappings, "intermediary", "named"))
-				.renameInvalidLocals(false)
-				.build();
-
-		try {
-			remapper.readClassPathAsync(getRemapClasspath().toArray(new Path[0]));
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to populate remap classpath", e);
-		}
-
+		String mappingFingerprint = FabricLoaderImpl.INSTANCE.getMappingConfiguration().getFingerprint();
+		RemapManifest manifest = RemapManifest.load(outputDir);
 		Map<ModCandidate, RemapInfo> infoMap = new HashMap<>();
+		// refmaps only depend on the mappings and how the loader remaps them besides their content
+		ContentCache refmapCache = new ContentCache(cacheDir, REFMAP_CACHE_DIR_NAME, mappingFingerprint + "|" + FabricLoaderImpl.VERSION);
+		refmapCache.prune();
+		boolean lazy = Boolean.getBoolean(SystemProperties.REMAP_LAZY);
+		// lazy mode outputs only carry the non-class files
+		String loaderVersion = lazy ? FabricLoaderImpl.VERSION + "-lazy" : FabricLoaderImpl.VERSION;
+		RemapReport report = new RemapReport();
+		List<TinyRemapper> remappers = new ArrayList<>();
+
+		try (RemapScheduler scheduler = new RemapScheduler()) {
+			List<CompletableFuture<?>> prepared = new ArrayList<>();
 
-		try {
 			for (ModCandidate mod : modsToRemap) {
 				RemapInfo info = new RemapInfo();
+				// set before the info is visible to the cleanup below
+				info.outputPath = outputDir.resolve(mod.getDefaultFileName());
 				infoMap.put(mod, info);
 
-				InputTag tag = remapper.createInputTag();
-				info.tag = tag;
+				prepared.add(scheduler.submit("prepare", () -> {
+					if (mod.hasPath()) {
+						info.inputPath = mod.getPath();
+						info.inputHash = HashUtil.hash(info.inputPath);
+					} else {
+						// nested jars are checked from memory, they only get extracted if they actually need remapping
+						info.inputData = mod.getData();
+						info.inputHash = HashUtil.hash(info.inputData);
+					}
 
-				if (mod.hasPath()) {
-					info.inputPath = mod.getPath();
-				} else {
-					info.inputPath = mod.copyToDir(tmpDir, true);
-					info.inputIsTemp = true;
-				}
+					info.upToDate = manifest.isUpToDate(info.outputPath, info.inputHash, mappingFingerprint, loaderVersion);
 
-				info.outputPath = outputDir.resolve(mod.getDefaultFileName());
-				Files.deleteIfExists(info.outputPath);
+					return null;
+				}));
+			}
+
+			join(prepared);
 
-				remapper.readInputsAsync(tag, info.inputPath);
+			// reuse outputs of earlier runs for mods whose input, mappings and loader didn't change
+			List<ModCandidate> allMods = new ArrayList<>(modsToRemap);
+			modsToRemap.removeIf(mod -> infoMap.get(mod).upToDate);
+
+			if (!lazy && modsToRemap.isEmpty()) {
+				for (ModCandidate mod : allMods) report.addReused(mod.getId());
+				Log.info(LogCategory.MOD_REMAP, "Reusing %d remapped mods, remapping 0", allMods.size());
+				setOutputPaths(allMods, infoMap);
+				report.write(cacheDir, scheduler.getParallelism(), false);
+				return;
 			}
 
-			//Done in a 2nd loop as we need to make sure all the inputs are present before remapping
-			for (ModCandidate mod : modsToRemap) {
+			// the original jars of reused mods are still needed, remapped mods may extend their classes
+			List<CompletableFuture<?>> scanned = new ArrayList<>();
+			MappingPruner pruner = new MappingPruner(mappings);
+
+			for (ModCandidate mod : allMods) {
 				RemapInfo info = infoMap.get(mod);
-				OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(info.outputPath).build();
+				CompletableFuture<?> extracted = CompletableFuture.completedFuture(null);
 
-				FileSystemUtil.FileSystemDelegate delegate = FileSystemUtil.getJarFileSystem(info.inputPath, false);
+				if (lazy && info.inputData != null) {
+					// lazy remapping serves every mod from its jar in .fabric, copyToDir writes the data still strongly held by info
+					extracted = scheduler.submit("extract", () -> {
+						info.inputPath = mod.copyToDir(cacheDir.resolve(LazyClassRemapper.INPUT_DIR_NAME), false);
+						info.inputData = null;
 
-				if (delegate.get() == null) {
-					throw new RuntimeException("Could not open JAR file " + info.inputPath.getFileName() + " for NIO reading!");
+						return null;
+					});
 				}
 
-				Path inputJar = delegate.get().getRootDirectories().iterator().next();
-				outputConsumer.addNonClassFiles(inputJar, NonClassCopyMode.FIX_META_INF, remapper);
+				scanned.add(scheduler.submit("scan", extracted, report.time(mod.getId(), RemapReport.MAPPING_SCAN, () -> {
+					String accessWidener = mod.getMetadata().getAccessWidener();
 
-				info.outputConsumerPath = outputConsumer;
+					if (info.inputData != null) {
+						// nested mods are scanned from memory, only the ones ending up in a partition get extracted
+						pruner.scan(info.inputData, mod, accessWidener, info.classes);
+						info.classes.size = info.inputData.remaining();
+					} else {
+						pruner.scan(info.inputPath, accessWidener, info.classes);
+						info.classes.size = Files.size(info.inputPath);
+					}
 
-				remapper.apply(outputConsumer, info.tag);
+					return null;
+				})));
 			}
 
-			//Done in a 3rd loop as this can happen when the remapper is doing its thing.
-			for (ModCandidate mod : modsToRemap) {
+			Path[] classpath;
+
+			try {
+				classpath = getIndexedRemapClasspath(cacheDir);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to populate remap classpath", e);
+			}
+
+			join(scanned);
+
+			if (!lazy) addDependentMods(allMods, modsToRemap, infoMap, pruner.isComplete());
+
+			List<ModCandidate> upToDateMods = new ArrayList<>();
+
+			for (ModCandidate mod : allMods) {
+				if (!modsToRemap.contains(mod)) {
+					upToDateMods.add(mod);
+					report.addReused(mod.getId());
+				}
+			}
+
+			Log.info(LogCategory.MOD_REMAP, "Reusing %d remapped mods, remapping %d", upToDateMods.size(), modsToRemap.size());
+
+			// only the mappings the mods can reach, the rest would be loaded and propagated for nothing
+			IMappingProvider mappingProvider = pruner.build(classpath);
+			List<List<ModCandidate>> partitions = new ArrayList<>();
+
+			if (lazy || !pruner.isComplete()) {
+				// lazy remapping serves all mods from one environment, without complete scans all mods get remapped
+				partitions.add(allMods);
+			} else {
+				// reused mods are part of the graph so each instance sees the hierarchy of their classes as well
+				List<RemapPartitioner.ModClasses> modClasses = new ArrayList<>();
+				boolean[] remapped = new boolean[allMods.size()];
+
+				for (int i = 0; i < remapped.length; i++) {
+					modClasses.add(infoMap.get(allMods.get(i)).classes);
+					remapped[i] = !upToDateMods.contains(allMods.get(i));
+				}
+
+				int maxPartitions = Integer.getInteger(SystemProperties.REMAP_PARTITIONS, Math.min(4, scheduler.getParallelism()));
+
+				for (List<Integer> indices : RemapPartitioner.partition(modClasses, remapped, maxPartitions)) {
+					List<ModCandidate> partition = new ArrayList<>();
+					for (int i : indices) partition.add(allMods.get(i));
+					partitions.add(partition);
+				}
+			}
+
+			for (RemapInfo info : infoMap.values()) {
+				info.classes = null;
+			}
+
+			Set<ModCandidate> partitioned = new HashSet<>();
+			for (List<ModCandidate> partition : partitions) partitioned.addAll(partition);
+			List<CompletableFuture<?>> extracted = new ArrayList<>();
+
+			for (ModCandidate mod : allMods) {
 				RemapInfo info = infoMap.get(mod);
+				if (info.inputData == null) continue;
+
+				if (!partitioned.contains(mod)) {
+					info.inputData = null;
+					continue;
+				}
+
+				// tiny-remapper only reads inputs from files, copyToDir writes the data still strongly held by info
+				extracted.add(scheduler.submit("extract", () -> {
+					info.inputPath = mod.copyToDir(tmpDir, true);
+					info.inputIsTemp = true;
+					info.inputData = null;
+
+					return null;
+				}));
+			}
 
-				String accessWidener = mod.getMetadata().getAccessWidener();
+			join(extracted);
 
-				if (accessWidener != null) {
-					info.accessWidenerPath = accessWidener;
+			Log.debug(LogCategory.MOD_REMAP, "Remapping %d mods with %d tiny-remapper instances", modsToRemap.size(), partitions.size());
 
-					try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(info.inputPath, false)) {
-						FileSystem fs = jarFs.get();
-						info.accessWidener = remapAccessWidener(Files.readAllBytes(fs.getPath(accessWidener)), remapper.getRemapper());
+			List<CompletableFuture<?>> reads = new ArrayList<>();
+
+			for (List<ModCandidate> partition : partitions) {
+				TinyRemapper remapper = TinyRemapper.newRemapper()
+						.withMappings(mappingProvider)
+						.renameInvalidLocals(false)
+						.threads(Math.max(1, scheduler.getParallelism() / partitions.size()))
+						.build();
+
+				remappers.add(remapper);
+				remapper.readClassPathAsync(classpath);
+				List<CompletableFuture<?>> partitionReads = new ArrayList<>();
+
+				for (ModCandidate mod : partition) {
+					RemapInfo info = infoMap.get(mod);
+					info.remapper = remapper;
+
+					if (lazy) {
+						// mod classes are only needed for their hierarchy and members until they get loaded
+						partitionReads.add(recordRead(remapper.readClassPathAsync(info.inputPath), mod, info.inputPath, report));
+					} else if (upToDateMods.contains(mod)) {
+						// reused mods only contribute their hierarchy and members
+						partitionReads.add(remapper.readClassPathAsync(info.inputPath));
+					} else {
+						info.tag = remapper.createInputTag();
+						partitionReads.add(recordRead(remapper.readInputsAsync(info.tag, info.inputPath), mod, info.inputPath, report));
 					}
 				}
-			}
 
-			remapper.finish();
+				// tiny-remapper needs every input of the instance before it can remap any of them
+				CompletableFuture<?> partitionRead = CompletableFuture.allOf(partitionReads.toArray(new CompletableFuture[0]));
+				for (ModCandidate mod : partition) infoMap.get(mod).read = partitionRead;
+				reads.add(partitionRead);
+			}
 
 			for (ModCandidate mod : modsToRemap) {
 				RemapInfo info = infoMap.get(mod);
 
-				info.outputConsumerPath.close();
+				manifest.remove(info.outputPath);
+				Files.deleteIfExists(info.outputPath);
+
+				// shared by all stages of the mod, opening the same jar concurrently would close it under the others
+				info.inputFs = FileSystemUtil.getJarFileSystem(info.inputPath, false);
 
-				Set<String> mixins = new HashSet<>(mod.getMetadata().getMixinConfigs(EnvType.CLIENT));
-				mixins.addAll(mod.getMetadata().getMixinConfigs(EnvType.SERVER));
+				if (info.inputFs.get() == null) {
+					throw new RuntimeException("Could not open JAR file " + info.inputPath.getFileName() + " for NIO reading!");
+				}
 
-				if (!mixins.isEmpty()) {
-					try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(info.inputPath, false)) {
-						try (FileSystemUtil.FileSystemDelegate jarFs2 = FileSystemUtil.getJarFileSystem(info.outputPath, false)) {
-							FileSystem fs = jarFs.get();
-							FileSystem outfs = jarFs2.get();
-							Set<String> refmaps = new HashSet<>();
+				info.output = new RemappedJarWriter(info.outputPath);
+			}
 
-							for (String mixin : mixins) {
-								JsonObject mixinConfig = new JsonParser().parse(new StringReader(new String(Files.readAllBytes(fs.getPath("/" + mixin))))).getAsJsonObject();
+			List<CompletableFuture<?>> finalized = new ArrayList<>();
+			// applying without inputs only propagates mappings through the hierarchy, which lazy remapping relies on
+			CompletableFuture<?> environment = lazy ? scheduler.submit("environment", reads.get(0), () -> {
+				remappers.get(0).apply((name, bytes) -> { });
+				return null;
+			}) : null;
+
+			for (ModCandidate mod : modsToRemap) {
+				RemapInfo info = infoMap.get(mod);
+				String id = mod.getId();
 
-								refmaps.add(mixinConfig.get("refmap").getAsString());
-							}
+				// refmaps only depend on the input jar and overlap with reading and remapping classes
+				CompletableFuture<?> refmaps = scheduler.submit("refmap", report.time(id, RemapReport.REFMAP, () -> {
+					info.refmaps = remapRefmaps(mod, info.inputFs.get(), mappings, refmapCache);
+					for (byte[] refmap : info.refmaps.values()) report.addBytes(id, RemapReport.REFMAP, refmap.length);
 
-							for (String refmap : refmaps) {
-								System.out.println(refmap);
-								JsonObject refmapObject = new JsonParser().parse(new StringReader(new String(Files.readAllBytes(fs.getPath("/" + refmap))))).getAsJsonObject();
-								Files.delete(outfs.getPath(refmap));
-								Files.write(outfs.getPath(refmap), remapRefmap(refmapObject, mappings));
-							}
+					return null;
+				}));
+
+				CompletableFuture<?> classes = lazy ? environment : scheduler.submit("remap", info.read, report.time(id, RemapReport.APPLY, () -> {
+					AtomicLong bytesWritten = new AtomicLong();
+
+					info.remapper.apply((name, bytes) -> {
+						try {
+							info.output.write(name + ".class", bytes);
+							bytesWritten.addAndGet(bytes.length);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
 						}
+					}, info.tag);
+
+					report.addBytes(id, RemapReport.APPLY, bytesWritten.get());
+
+					return null;
+				}));
+
+				// resources go straight into the output next to the classes, only the refmaps to replace need to be known
+				CompletableFuture<?> nonClassFiles = scheduler.submit("copy", CompletableFuture.allOf(refmaps, info.read), report.time(id, RemapReport.NON_CLASS_COPY, () -> {
+					report.addBytes(id, RemapReport.NON_CLASS_COPY, copyNonClassFiles(mod, info, info.remapper.getRemapper()));
+					return null;
+				}));
+
+				CompletableFuture<?> accessWidener = scheduler.submit("access widener", classes, report.time(id, RemapReport.ACCESS_WIDENER, () -> {
+					String path = mod.getMetadata().getAccessWidener();
+
+					if (path != null) {
+						info.accessWidenerPath = path;
+						info.accessWidener = remapAccessWidener(Files.readAllBytes(info.inputFs.get().getPath(path)), info.remapper.getRemapper());
+						report.addBytes(id, RemapReport.ACCESS_WIDENER, info.accessWidener.length);
 					}
-				}
 
+					return null;
+				}));
 
-				if (info.accessWidenerPath != null) {
-					try (FileSystemUtil.FileSystemDelegate jarFs = FileSystemUtil.getJarFileSystem(info.outputPath, false)) {
-						FileSystem fs = jarFs.get();
+				finalized.add(scheduler.submit("finalize", CompletableFuture.allOf(classes, nonClassFiles, accessWidener), report.time(id, RemapReport.CLOSE, () -> {
+					for (Map.Entry<String, byte[]> entry : info.refmaps.entrySet()) {
+						info.output.write(getEntryName(entry.getKey()), entry.getValue());
+					}
 
-						Files.delete(fs.getPath(info.accessWidenerPath));
-						Files.write(fs.getPath(info.accessWidenerPath), info.accessWidener);
+					if (info.accessWidenerPath != null) {
+						info.output.write(getEntryName(info.accessWidenerPath), info.accessWidener);
 					}
+
+					info.output.close();
+					report.addBytes(id, RemapReport.CLOSE, Files.size(info.outputPath));
+
+					return null;
+				})));
+			}
+
+			join(finalized);
+
+			if (lazy) {
+				join(Collections.singletonList(environment));
+
+				List<Path> modJars = new ArrayList<>();
+				MessageDigest environmentKey = HashUtil.newDigest();
+				HashUtil.update(environmentKey, mappingFingerprint);
+				HashUtil.update(environmentKey, loaderVersion);
+
+				// the raw classpath if indexing failed, jars can then change under the same name
+				HashUtil.update(environmentKey, ClasspathIndex.getKey(Arrays.asList(classpath)));
+
+				for (ModCandidate mod : allMods) {
+					RemapInfo info = infoMap.get(mod);
+					modJars.add(info.inputPath);
+					HashUtil.update(environmentKey, info.inputHash);
 				}
 
+				// remapped classes depend on the hierarchy of all mods, any change invalidates them
+				ContentCache classCache = new ContentCache(cacheDir, LazyClassRemapper.CACHE_DIR_NAME, HashUtil.toHex(environmentKey.digest()));
+				classCache.prune();
+				LazyClassRemapper lazyRemapper = new LazyClassRemapper(remappers.get(0), modJars, classCache);
+				FabricLoaderEarlyRiser.addToClassPath(lazyRemapper.getUrl());
+
+				Log.info(LogCategory.MOD_REMAP, "Remapping classes of %d mods lazily", allMods.size());
+			} else {
+				for (TinyRemapper remapper : remappers) remapper.finish();
+			}
+
+			// only now, switching the path drops the data nested reused mods were read from
+			setOutputPaths(upToDateMods, infoMap);
+
+			for (ModCandidate mod : modsToRemap) {
+				RemapInfo info = infoMap.get(mod);
+
 				mod.setPath(info.outputPath);
+				manifest.put(info.outputPath, info.inputHash, mappingFingerprint, loaderVersion);
 			}
 
+			scheduler.logMetrics();
+			report.write(cacheDir, scheduler.getParallelism(), lazy);
+			Log.info(LogCategory.MOD_REMAP, "Refmap cache: %d hits, %d misses", refmapCache.getHits(), refmapCache.getMisses());
+
+			try {
+				manifest.save();
+			} catch (IOException e) {
+				Log.warn(LogCategory.MOD_REMAP, "Failed to write remap manifest", e);
+			}
 		} catch (Throwable t) {
-			remapper.finish();
+			for (TinyRemapper remapper : remappers) remapper.finish();
+
+			for (ModCandidate mod : modsToRemap) {
+				RemapInfo info = infoMap.get(mod);
+				if (info == null) continue;
+
+				try {
+					if (info.output != null) info.output.close();
+				} catch (IOException e) {
+					Log.debug(LogCategory.MOD_REMAP, "Error closing failed output jar %s", info.outputPath, e);
+				}
 
-			for (RemapInfo info : infoMap.values()) {
 				try {
 					Files.deleteIfExists(info.outputPath);
-				} catch (IOException | NullPointerException e) {
+				} catch (IOException e) {
 					Log.warn(LogCategory.MOD_REMAP, "Error deleting failed output jar %s", info.outputPath, e);
 				}
 			}
@@ -189,61 +432,284 @@ public final class RuntimeModRemapper {
 		} finally {
 			for (RemapInfo info : infoMap.values()) {
 				try {
+					if (info.inputFs != null) info.inputFs.close();
 					if (info.inputIsTemp) Files.deleteIfExists(info.inputPath);
-				} catch (IOException  | NullPointerException e) {
-					Log.warn(LogCategory.MOD_REMAP, "Error deleting temporary input jar %s", info.inputIsTemp, e);
+				} catch (IOException e) {
+					Log.warn(LogCategory.MOD_REMAP, "Error deleting temporary input jar %s", info.inputPath, e);
 				}
 			}
 		}
 	}
 
-	private final static Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+	private static CompletableFuture<?> recordRead(CompletableFuture<?> read, ModCandidate mod, Path inputPath, RemapReport report) throws IOException {
+		long startTime = System.nanoTime();
+		long size = Files.size(inputPath);
 
-	// fallback if no class specified in refmap
-	private static String[] findMapping(String methodOrField, TinyTree tree) {
-		String methodOrFieldName = methodOrField.split("[(:]")[0];
-		boolean isMethod = methodOrField.contains("(");
-		for (ClassDef aClass : tree.getClasses()) {
-			if (isMethod) {
-				for (MethodDef method : aClass.getMethods()) {
-					if (method.getName("intermediary").equals(methodOrFieldName))
-						return new String[] {"L" + aClass.getName("intermediary"), method.getName("intermediary") + method.getDescriptor("intermediary")};
-				}
-			} else {
-				for (FieldDef field : aClass.getFields()) {
-					if (field.getName("intermediary").equals(methodOrFieldName))
-						return new String[] {"L" + aClass.getName("intermediary"), field.getName("intermediary") + ":" + field.getDescriptor("intermediary")};
+		return read.whenComplete((result, exc) -> report.record(mod.getId(), RemapReport.INPUT_READ, System.nanoTime() - startTime, size));
+	}
+
+	/**
+	 * Moves the up to date mods that reference classes of mods in {@code modsToRemap}, directly or through other mods,
+	 * to {@code modsToRemap} as well since their output depends on the hierarchy of those classes.
+	 */
+	private static void addDependentMods(List<ModCandidate> allMods, List<ModCandidate> modsToRemap, Map<ModCandidate, RemapInfo> infoMap, boolean referencesKnown) {
+		if (!referencesKnown) {
+			// a failed scan leaves the dependencies unknown
+			modsToRemap.clear();
+			modsToRemap.addAll(allMods);
+			return;
+		}
+
+		List<RemapPartitioner.ModClasses> modClasses = new ArrayList<>(allMods.size());
+		boolean[] outdated = new boolean[allMods.size()];
+
+		for (int i = 0; i < outdated.length; i++) {
+			modClasses.add(infoMap.get(allMods.get(i)).classes);
+			outdated[i] = modsToRemap.contains(allMods.get(i));
+		}
+
+		RemapPartitioner.addDependents(modClasses, outdated);
+		modsToRemap.clear();
+
+		for (int i = 0; i < outdated.length; i++) {
+			if (outdated[i]) modsToRemap.add(allMods.get(i));
+		}
+	}
+
+	private static void setOutputPaths(List<ModCandidate> mods, Map<ModCandidate, RemapInfo> infoMap) {
+		for (ModCandidate mod : mods) {
+			mod.setPath(infoMap.get(mod).outputPath);
+		}
+	}
+
+	private static void join(List<CompletableFuture<?>> futures) throws Throwable {
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+		} catch (CompletionException e) {
+			throw e.getCause() != null ? e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Copies everything but classes and the files replaced in the finalize stage from the input jar, unchanged entries
+	 * as raw compressed data. Signature files are dropped and the manifest and service files fixed up the way
+	 * tiny-remapper's {@code NonClassCopyMode.FIX_META_INF} does.
+	 *
+	 * @return the number of bytes copied unchanged
+	 */
+	private static long copyNonClassFiles(ModCandidate mod, RemapInfo info, Remapper remapper) throws IOException {
+		Set<String> replaced = new HashSet<>();
+		for (String refmap : info.refmaps.keySet()) replaced.add(getEntryName(refmap));
+		String accessWidener = mod.getMetadata().getAccessWidener();
+		if (accessWidener != null) replaced.add(getEntryName(accessWidener));
+
+		FileSystem fs = info.inputFs.get();
+		long ret = 0;
+
+		try (FileChannel source = FileChannel.open(info.inputPath, StandardOpenOption.READ)) {
+			List<RemappedJarWriter.SourceEntry> entries;
+
+			try {
+				entries = RemappedJarWriter.readEntries(source);
+			} catch (ZipException e) {
+				Log.debug(LogCategory.MOD_REMAP, "Can't copy raw entries from %s, recompressing: %s", info.inputPath, e.getMessage());
+				entries = null;
+			}
+
+			if (entries != null) {
+				for (RemappedJarWriter.SourceEntry entry : entries) {
+					if (entry.isDirectory() || !writeFixedNonClassFile(entry.name, replaced, fs, info.output, remapper)) {
+						info.output.copyRaw(source, entry);
+						ret += entry.compressedSize;
+					}
 				}
+
+				return ret;
 			}
 		}
-		return null;
+
+		List<Path> files;
+
+		try (Stream<Path> stream = Files.walk(fs.getPath("/"))) {
+			files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+
+		for (Path file : files) {
+			String name = getEntryName(file.toString());
+
+			if (!writeFixedNonClassFile(name, replaced, fs, info.output, remapper)) {
+				byte[] data = Files.readAllBytes(file);
+				info.output.write(name, data);
+				ret += data.length;
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Handles non-class files that can't be copied unchanged, returns false for all others.
+	 */
+	private static boolean writeFixedNonClassFile(String name, Set<String> replaced, FileSystem fs, RemappedJarWriter output, Remapper remapper) throws IOException {
+		if (name.endsWith(".class") || replaced.contains(name)) return true;
+		if (!name.startsWith("META-INF/")) return false;
+
+		String fileName = name.substring(name.lastIndexOf('/') + 1);
+
+		if (name.indexOf('/', "META-INF/".length()) < 0
+				&& (fileName.endsWith(".SF") || fileName.endsWith(".DSA") || fileName.endsWith(".RSA") || fileName.endsWith(".EC") || fileName.startsWith("SIG-"))) {
+			return true; // signatures break with remapped classes
+		}
+
+		if (name.equals("META-INF/MANIFEST.MF")) {
+			output.write(name, fixManifest(Files.readAllBytes(fs.getPath(name)), remapper));
+			return true;
+		}
+
+		if (name.startsWith("META-INF/services/") && name.indexOf('/', "META-INF/services/".length()) < 0) {
+			output.write("META-INF/services/" + mapClassName(fileName, remapper), fixServiceFile(Files.readAllBytes(fs.getPath(name)), remapper));
+			return true;
+		}
+
+		return false;
 	}
 
-	private static String remapClass(String intClassDesc, TinyTree tree) {
-		String intClassName = intClassDesc.replaceAll("^L", "").replaceAll(";$", "");
-		ClassDef cls = tree.getClasses().parallelStream().filter(e -> e.getName("intermediary").equals(intClassName)).findFirst().orElse(null);
+	private static byte[] fixManifest(byte[] data, Remapper remapper) throws IOException {
+		Manifest manifest = new Manifest(new ByteArrayInputStream(data));
+		Attributes mainAttributes = manifest.getMainAttributes();
+
+		String mainClass = mainAttributes.getValue(Attributes.Name.MAIN_CLASS);
+		if (mainClass != null) mainAttributes.put(Attributes.Name.MAIN_CLASS, mapClassName(mainClass, remapper));
+		mainAttributes.remove(Attributes.Name.SIGNATURE_VERSION);
+
+		for (Iterator<Attributes> it = manifest.getEntries().values().iterator(); it.hasNext(); ) {
+			Attributes attributes = it.next();
+			attributes.keySet().removeIf(key -> {
+				String name = key.toString();
+				return name.endsWith("-Digest") || name.contains("-Digest-") || name.equals("Magic");
+			});
+
+			if (attributes.isEmpty()) it.remove();
+		}
+
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(data.length);
+		manifest.write(ret);
+
+		return ret.toByteArray();
+	}
+
+	private static byte[] fixServiceFile(byte[] data, Remapper remapper) throws IOException {
+		StringBuilder ret = new StringBuilder(data.length);
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				int comment = line.indexOf('#');
+				String className = (comment >= 0 ? line.substring(0, comment) : line).trim();
+
+				if (!className.isEmpty()) line = line.replace(className, mapClassName(className, remapper));
+				ret.append(line).append('\n');
+			}
+		}
+
+		return ret.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String mapClassName(String className, Remapper remapper) {
+		return remapper.map(className.replace('.', '/')).replace('/', '.');
+	}
+
+	private static String getEntryName(String path) {
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	/**
+	 * Remapped refmaps of all mixin configs of a mod by path in the jar.
+	 */
+	private static Map<String, byte[]> remapRefmaps(ModCandidate mod, FileSystem fs, MappingIndex mappings, ContentCache refmapCache) throws IOException {
+		Set<String> mixins = new HashSet<>(mod.getMetadata().getMixinConfigs(EnvType.CLIENT));
+		mixins.addAll(mod.getMetadata().getMixinConfigs(EnvType.SERVER));
+		if (mixins.isEmpty()) return Collections.emptyMap();
+
+		Set<String> refmaps = new HashSet<>();
+
+		for (String mixin : mixins) {
+			byte[] config = Files.readAllBytes(fs.getPath("/" + mixin));
+			String refmap = new String(refmapCache.get("mixin config", config, RuntimeModRemapper::getRefmapName), StandardCharsets.UTF_8);
+
+			if (!refmap.isEmpty()) refmaps.add(refmap);
+		}
+
+		Map<String, byte[]> ret = new HashMap<>();
+
+		for (String refmap : refmaps) {
+			Log.trace(LogCategory.MOD_REMAP, "Remapping refmap %s of %s", refmap, mod.getId());
+			ret.put(refmap, refmapCache.get("refmap", Files.readAllBytes(fs.getPath("/" + refmap)), input -> remapRefmap(parseJson(input), mappings)));
+		}
+
+		return ret;
+	}
+
+	private final static Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+
+	private static JsonObject parseJson(byte[] data) {
+		return new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8)).getAsJsonObject();
+	}
+
+	private static byte[] getRefmapName(byte[] mixinConfig) {
+		JsonElement refmap = parseJson(mixinConfig).get("refmap");
+
+		return refmap != null ? refmap.getAsString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+	}
+
+	// fallback if no class specified in refmap
+	private static String[] findMapping(String methodOrField, MappingIndex index) {
+		int nameEnd = methodOrField.indexOf('(');
+		boolean isMethod = nameEnd >= 0 || methodOrField.startsWith("method");
+		if (nameEnd < 0) nameEnd = methodOrField.indexOf(':');
+		String methodOrFieldName = nameEnd >= 0 ? methodOrField.substring(0, nameEnd) : methodOrField;
+		MappingIndex.Member member = isMethod ? index.findMethod(methodOrFieldName) : index.findField(methodOrFieldName);
+		if (member == null) return null;
+		String from = index.getSourceNamespace();
+		return new String[] {"L" + member.owner.getName(from), member.def.getName(from) + (isMethod ? "" : ":") + member.def.getDescriptor(from)};
+	}
+
+	private static String getClassName(String classDesc) {
+		int start = classDesc.startsWith("L") ? 1 : 0;
+		int end = classDesc.endsWith(";") ? classDesc.length() - 1 : classDesc.length();
+		return classDesc.substring(start, Math.max(start, end));
+	}
+
+	private static String remapClass(String intClassDesc, MappingIndex index) {
+		ClassDef cls = index.getClass(getClassName(intClassDesc));
 		if (cls == null) return intClassDesc;
 		return "L" + cls.getName("named") + ";";
 	}
 
-	private static String remapFieldOrMethod(String intClassDesc, String intFieldOrMethodDesc, TinyTree tree) {
-		String intClassName = intClassDesc.replaceAll("^L", "").replaceAll(";$", "");
-		String[] methodOrFieldParts = intFieldOrMethodDesc.split("[(:]");
+	private static String remapFieldOrMethod(String intClassDesc, String intFieldOrMethodDesc, MappingIndex index) {
+		String intClassName = getClassName(intClassDesc);
 		boolean isMethod = intFieldOrMethodDesc.contains("(");
-		ClassDef cls = tree.getClasses().parallelStream().filter(e -> e.getName("intermediary").equals(intClassName)).findFirst().orElse(null);
-		if (cls == null) return intFieldOrMethodDesc;
 		if (isMethod) {
-			MethodDef method = cls.getMethods().parallelStream().filter(e -> intFieldOrMethodDesc.equals(e.getName("intermediary") + e.getDescriptor("intermediary"))).findFirst().orElse(null);
-			if (method == null) return intFieldOrMethodDesc;
+			int descStart = intFieldOrMethodDesc.indexOf('(');
+			String name = intFieldOrMethodDesc.substring(0, descStart);
+			String desc = intFieldOrMethodDesc.substring(descStart);
+			MethodDef method = index.getMethod(intClassName, name, desc);
+			// unmapped members can still reference mapped classes in their descriptor
+			if (method == null) return name + index.getDescriptorRemapper().remap(desc);
 			return method.getName("named") + method.getDescriptor("named");
 		} else {
-			FieldDef field = cls.getFields().parallelStream().filter(e -> intFieldOrMethodDesc.equals(e.getName("intermediary") + ":" + e.getDescriptor("intermediary"))).findFirst().orElse(null);
-			if (field == null) return intFieldOrMethodDesc;
+			int descStart = intFieldOrMethodDesc.indexOf(':');
+			if (descStart < 0) return intFieldOrMethodDesc;
+			String name = intFieldOrMethodDesc.substring(0, descStart);
+			String desc = intFieldOrMethodDesc.substring(descStart + 1);
+			FieldDef field = index.getField(intClassName, name, desc);
+			if (field == null) return name + ":" + index.getDescriptorRemapper().remap(desc);
 			return field.getName("named") + ":" + field.getDescriptor("named");
 		}
 	}
 
-	private static byte[] remapRefmap(JsonObject input, TinyTree tree) {
+	private static byte[] remapRefmap(JsonObject input, MappingIndex index) {
 		JsonObject mappings = input.getAsJsonObject("mappings");
 		JsonObject remappedRefmap = new JsonObject();
 		JsonObject remappedMappings;
@@ -255,44 +721,107 @@ public final class RuntimeModRemapper {
 				String reference = entry.getValue().getAsString();
 				String[] parts = reference.split(";", 2);
 				if (parts[0].startsWith("field") || parts[0].startsWith("method")) {
-					parts = findMapping(parts[0], tree);
+					String[] found = findMapping(parts[0], index);
+					if (found == null) {
+						Log.warn(LogCategory.MOD_REMAP, "Could not find owner of %s in refmap", reference);
+						remappedClassEntry.add(entry.getKey(), entry.getValue());
+						continue;
+					}
+					parts = found;
 				}
 				if (!parts[0].startsWith("L")) {
 					parts[0] = "L" + parts[0];
 				}
 				String classDesc = parts[0] + ";";
-				String remappedReference = remapClass(classDesc, tree);
+				String remappedReference = remapClass(classDesc, index);
 				if (parts.length > 1) {
 					String fieldOrMethod = parts[1];
-					remappedReference += remapFieldOrMethod(classDesc, fieldOrMethod, tree);
+					remappedReference += remapFieldOrMethod(classDesc, fieldOrMethod, index);
 				}
-				System.out.println(reference + " -> " + remappedReference);
+				Log.trace(LogCategory.MOD_REMAP, "%s -> %s", reference, remappedReference);
 				remappedClassEntry.add(entry.getKey(), new JsonPrimitive(remappedReference));
 			}
 		}
 		return gson.toJson((JsonElement) remappedRefmap).getBytes(StandardCharsets.UTF_8);
 	}
 
+	/**
+	 * Remaps an intermediary access widener to named line by line, keeping comments and blank lines.
+	 */
 	private static byte[] remapAccessWidener(byte[] input, Remapper remapper) {
-		//TODO::::
-		try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8))) {
-//			AccessWidener accessWidener = new AccessWidener();
-//			AccessWidenerReader accessWidenerReader = new AccessWidenerReader(accessWidener);
-//			accessWidenerReader.read(bufferedReader, "intermediary");
-//
-//			AccessWidenerRemapper accessWidenerRemapper = new AccessWidenerRemapper(accessWidener, remapper, "named");
-//			AccessWidener remapped = accessWidenerRemapper.remap();
-//			AccessWidenerWriter accessWidenerWriter = new AccessWidenerWriter(remapped);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(input), StandardCharsets.UTF_8))) {
+			String[] header = AccessWidenerIndex.readHeader(reader);
+
+			if (header[2].equals("named")) return input;
+
+			if (!header[2].equals("intermediary")) {
+				throw new RuntimeException("Cannot remap access widener from namespace " + header[2] + ", expected intermediary");
+			}
+
+			StringBuilder ret = new StringBuilder(input.length + 64);
+			ret.append(header[0]).append('\t').append(header[1]).append("\tnamed\n");
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				String[] tokens = AccessWidenerIndex.tokenize(line);
+
+				if (tokens.length < 3) {
+					ret.append(line).append('\n');
+					continue;
+				}
+
+				int start = line.indexOf(tokens[1]);
+				int comment = line.indexOf('#');
+				String owner = tokens[2];
+
+				switch (tokens[1]) {
+				case "class":
+					tokens[2] = remapper.map(owner);
+					break;
+				case "method":
+					if (tokens.length != 5) throw new RuntimeException("Invalid method access widener entry: " + line);
+					tokens[3] = remapper.mapMethodName(owner, tokens[3], tokens[4]);
+					tokens[2] = remapper.map(owner);
+					tokens[4] = remapper.mapMethodDesc(tokens[4]);
+					break;
+				case "field":
+					if (tokens.length != 5) throw new RuntimeException("Invalid field access widener entry: " + line);
+					tokens[3] = remapper.mapFieldName(owner, tokens[3], tokens[4]);
+					tokens[2] = remapper.map(owner);
+					tokens[4] = remapper.mapDesc(tokens[4]);
+					break;
+				default:
+					throw new RuntimeException("Unknown access widener target " + tokens[1] + ": " + line);
+				}
+
+				// access type is kept verbatim to preserve the transitive- prefix
+				ret.append(line.substring(0, start).trim());
 
-			try (StringWriter writer = new StringWriter()) {
-//				accessWidenerWriter.write(writer);
-				return writer.toString().getBytes(StandardCharsets.UTF_8);
+				for (int i = 1; i < tokens.length; i++) {
+					ret.append('\t').append(tokens[i]);
+				}
+
+				if (comment >= 0) ret.append(' ').append(line, comment, line.length());
+				ret.append('\n');
 			}
+
+			return ret.toString().getBytes(StandardCharsets.UTF_8);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	static Path[] getIndexedRemapClasspath(Path cacheDir) throws IOException {
+		List<Path> classpath = getRemapClasspath();
+
+		try {
+			return new Path[] { ClasspathIndex.get(classpath, cacheDir) };
+		} catch (IOException e) {
+			Log.warn(LogCategory.MOD_REMAP, "Failed to index remap classpath, reading it directly", e);
+			return classpath.toArray(new Path[0]);
+		}
+	}
+
 	private static List<Path> getRemapClasspath() throws IOException {
 		return Arrays.stream(((URLClassLoader) ClassLoader.getSystemClassLoader()).getURLs()).map(e -> {
 			try {
@@ -316,11 +845,19 @@ public final class RuntimeModRemapper {
 	}
 
 	private static class RemapInfo {
+		RemapPartitioner.ModClasses classes = new RemapPartitioner.ModClasses();
+		TinyRemapper remapper;
+		CompletableFuture<?> read;
 		InputTag tag;
 		Path inputPath;
+		ByteBuffer inputData;
+		String inputHash;
+		boolean upToDate;
+		FileSystemUtil.FileSystemDelegate inputFs;
 		Path outputPath;
 		boolean inputIsTemp;
-		OutputConsumerPath outputConsumerPath;
+		RemappedJarWriter output;
+		Map<String, byte[]> refmaps;
 		String accessWidenerPath;
 		byte[] accessWidener;
 	}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.transformer;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Access wideners of all mods merged into one table keyed by internal class name, so applying them costs a single
+ * lookup per loaded class and classes without entries are never touched.
+ */
+public final class AccessWidenerIndex {
+	static final int ACCESSIBLE = 1;
+	static final int EXTENDABLE = 2;
+	static final int MUTABLE = 4;
+
+	private final Map<String, ClassEntry> classes = new HashMap<>();
+
+	/**
+	 * Merges the access widener read from {@code reader}, which has to be in {@code namespace}.
+	 */
+	public void read(BufferedReader reader, String namespace) throws IOException {
+		String[] header = readHeader(reader);
+
+		if (!header[2].equals(namespace)) {
+			throw new RuntimeException(String.format("Namespace (%s) does not match current runtime namespace (%s)", header[2], namespace));
+		}
+
+		String line;
+		int lineNumber = 1;
+
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			String[] tokens = tokenize(line);
+			if (tokens.length == 0) continue;
+
+			int access = parseAccess(tokens[0], lineNumber);
+
+			if (tokens.length < 3) {
+				throw new RuntimeException("Invalid access widener entry on line " + lineNumber + ": " + line);
+			}
+
+			ClassEntry owner = classes.computeIfAbsent(tokens[2], ClassEntry::new);
+
+			switch (tokens[1]) {
+			case "class":
+				if (tokens.length != 3 || access == MUTABLE) throw new RuntimeException("Invalid class access widener on line " + lineNumber + ": " + line);
+				owner.access |= access;
+				break;
+			case "method":
+				if (tokens.length != 5 || access == MUTABLE) throw new RuntimeException("Invalid method access widener on line " + lineNumber + ": " + line);
+				owner.methods.merge(tokens[3] + tokens[4], access, (a, b) -> a | b);
+				// a reachable member needs a reachable owner, an overridable one an extendable owner
+				owner.access |= access == ACCESSIBLE ? ACCESSIBLE : EXTENDABLE;
+				break;
+			case "field":
+				if (tokens.length != 5 || access == EXTENDABLE) throw new RuntimeException("Invalid field access widener on line " + lineNumber + ": " + line);
+				owner.fields.merge(tokens[3] + ":" + tokens[4], access, (a, b) -> a | b);
+				if (access == ACCESSIBLE) owner.access |= ACCESSIBLE;
+				break;
+			default:
+				throw new RuntimeException("Unknown access widener target " + tokens[1] + " on line " + lineNumber);
+			}
+		}
+	}
+
+	/**
+	 * Internal names of all classes with entries.
+	 */
+	public Set<String> getTargets() {
+		return Collections.unmodifiableSet(classes.keySet());
+	}
+
+	public boolean isEmpty() {
+		return classes.isEmpty();
+	}
+
+	/**
+	 * Applies the entries for {@code node}, if any.
+	 */
+	public void apply(ClassNode node) {
+		ClassEntry entry = classes.get(node.name);
+		if (entry != null) entry.apply(node);
+	}
+
+	/**
+	 * Reads the header line, returns its tokens: {@code accessWidener}, version and namespace.
+	 */
+	public static String[] readHeader(BufferedReader reader) throws IOException {
+		String line = reader.readLine();
+		String[] header = line != null ? line.trim().split("\\s+") : new String[0];
+
+		if (header.length != 3 || !header[0].equals("accessWidener")) {
+			throw new RuntimeException("Invalid access widener header, expected 'accessWidener <version> <namespace>': " + line);
+		}
+
+		if (!header[1].equals("v1") && !header[1].equals("v2")) {
+			throw new RuntimeException("Unsupported access widener version " + header[1]);
+		}
+
+		return header;
+	}
+
+	/**
+	 * Splits an entry line into whitespace separated tokens, without comments and the v2 {@code transitive-} prefix.
+	 */
+	public static String[] tokenize(String line) {
+		int comment = line.indexOf('#');
+		if (comment >= 0) line = line.substring(0, comment);
+		line = line.trim();
+		if (line.isEmpty()) return new String[0];
+
+		String[] ret = line.split("\\s+");
+		if (ret[0].startsWith("transitive-")) ret[0] = ret[0].substring("transitive-".length());
+
+		return ret;
+	}
+
+	private static int parseAccess(String access, int lineNumber) {
+		switch (access) {
+		case "accessible": return ACCESSIBLE;
+		case "extendable": return EXTENDABLE;
+		case "mutable": return MUTABLE;
+		default: throw new RuntimeException("Unknown access type " + access + " on line " + lineNumber);
+		}
+	}
+
+	private static final class ClassEntry {
+		final String name;
+		int access;
+		final Map<String, Integer> methods = new HashMap<>();
+		final Map<String, Integer> fields = new HashMap<>();
+
+		ClassEntry(String name) {
+			this.name = name;
+		}
+
+		void apply(ClassNode node) {
+			node.access = applyClass(node.access);
+
+			for (InnerClassNode innerClass : node.innerClasses) {
+				if (innerClass.name.equals(name)) {
+					innerClass.access = applyClass(innerClass.access);
+				}
+			}
+
+			if (!fields.isEmpty()) {
+				for (FieldNode field : node.fields) {
+					Integer fieldAccess = fields.get(field.name + ":" + field.desc);
+					if (fieldAccess == null) continue;
+
+					if ((fieldAccess & ACCESSIBLE) != 0) field.access = makePublic(field.access);
+					if ((fieldAccess & MUTABLE) != 0) field.access &= ~Opcodes.ACC_FINAL;
+				}
+			}
+
+			if (!methods.isEmpty()) {
+				for (MethodNode method : node.methods) {
+					Integer methodAccess = methods.get(method.name + method.desc);
+
+					if (methodAccess != null) {
+						method.access = applyMethod(method.access, method.name, methodAccess);
+					}
+
+					for (AbstractInsnNode insn : method.instructions) {
+						if (insn.getOpcode() != Opcodes.INVOKESPECIAL) continue;
+						MethodInsnNode call = (MethodInsnNode) insn;
+
+						// private methods made overridable have to be dispatched virtually
+						if (call.owner.equals(name) && !call.name.equals("<init>")) {
+							Integer target = methods.get(call.name + call.desc);
+							if (target != null && (target & EXTENDABLE) != 0) call.setOpcode(Opcodes.INVOKEVIRTUAL);
+						}
+					}
+				}
+			}
+		}
+
+		private int applyClass(int classAccess) {
+			if ((access & ACCESSIBLE) != 0) classAccess = makePublic(classAccess);
+			if ((access & EXTENDABLE) != 0) classAccess = makePublic(classAccess) & ~Opcodes.ACC_FINAL;
+
+			return classAccess;
+		}
+
+		private static int applyMethod(int methodAccess, String name, int access) {
+			if ((access & ACCESSIBLE) != 0) {
+				boolean privateInstance = (methodAccess & (Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC)) == Opcodes.ACC_PRIVATE && !name.equals("<init>");
+				methodAccess = makePublic(methodAccess);
+
+				// keep formerly private methods from being overridden, their callers still use invokespecial
+				if (privateInstance && (access & EXTENDABLE) == 0) methodAccess |= Opcodes.ACC_FINAL;
+			}
+
+			if ((access & EXTENDABLE) != 0) {
+				if ((methodAccess & Opcodes.ACC_PUBLIC) == 0) {
+					methodAccess = methodAccess & ~(Opcodes.ACC_PRIVATE) | Opcodes.ACC_PROTECTED;
+				}
+
+				methodAccess &= ~Opcodes.ACC_FINAL;
+			}
+
+			return methodAccess;
+		}
+
+		private static int makePublic(int access) {
+			return access & ~(Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED) | Opcodes.ACC_PUBLIC;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class HashUtil {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static void update(MessageDigest digest, String str) {
+		digest.update(str.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	public static void update(MessageDigest digest, Path file) throws IOException {
+		byte[] buffer = new byte[8192];
+
+		try (InputStream is = Files.newInputStream(file)) {
+			int len;
+
+			while ((len = is.read(buffer)) >= 0) {
+				digest.update(buffer, 0, len);
+			}
+		}
+	}
+
+	public static String hash(ByteBuffer data) {
+		MessageDigest digest = newDigest();
+		digest.update(data.duplicate());
+
+		return toHex(digest.digest());
+	}
+
+	public static String hash(Path file) throws IOException {
+		MessageDigest digest = newDigest();
+		update(digest, file);
+
+		return toHex(digest.digest());
+	}
+
+	public static String toHex(byte[] data) {
+		char[] ret = new char[data.length * 2];
+
+		for (int i = 0; i < data.length; i++) {
+			ret[i * 2] = HEX[(data[i] >> 4) & 0xf];
+			ret[i * 2 + 1] = HEX[data[i] & 0xf];
+		}
+
+		return new String(ret);
+	}
+
+	private HashUtil() {
+	}
+}
@@ -33,6 +33,18 @@ public final class SystemProperties {
 	public static final String DEBUG_DISABLE_MOD_SHUFFLE = "fabric.debug.disableModShuffle";
 	// workaround for bad load order dependencies
 	public static final String DEBUG_LOAD_LATE = "fabric.debug.loadLate";
+	// path separated list of local folders (maven layout or flat) searched for mapping artifacts before downloading
+	public static final String MAPPINGS_REPOSITORIES = "fabric.mappings.repositories";
+	// never download mapping artifacts, fail if they can't be found locally
+	public static final String MAPPINGS_OFFLINE = "fabric.mappings.offline";
+	// size limit in MiB for generated mappings of all versions kept in .fabric/mappings
+	public static final String MAPPINGS_CACHE_SIZE = "fabric.mappings.cacheSize";
+	// number of worker threads for runtime mod remapping, defaults to the number of processors
+	public static final String REMAP_THREADS = "fabric.remap.threads";
+	// remap mod classes when they are first loaded instead of ahead of time
+	public static final String REMAP_LAZY = "fabric.remap.lazy";
+	// maximum number of independent tiny-remapper instances remapping mod groups in parallel
+	public static final String REMAP_PARTITIONS = "fabric.remap.partitions";
 
 	private SystemProperties() {
 	}
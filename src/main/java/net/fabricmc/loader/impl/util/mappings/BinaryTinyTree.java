@@ -0,0 +1,484 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.Descriptored;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.Mapped;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyMetadata;
+import net.fabricmc.mapping.tree.TinyTree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Read-only {@link TinyTree} backed by a memory-mapped binary snapshot of a tiny file.
+ *
+ * <p>The snapshot stores every name and descriptor once in a string pool and references them by index, strings are
+ * only decoded when first requested. It records the size and modification time of the text file it was created from
+ * so a stale snapshot can be detected and ignored.
+ */
+public final class BinaryTinyTree implements TinyTree {
+	private static final int MAGIC = 0x464F4D53; // FOMS
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+	private final ByteBuffer buffer;
+	private final List<String> namespaces;
+	private final SymbolTable symbols;
+	private final List<ClassDef> classes;
+	private volatile Map<String, ClassDef> defaultNamespaceClassMap;
+
+	private BinaryTinyTree(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		int nsCount = buffer.getInt(24);
+		int stringCount = buffer.getInt(28);
+		int classCount = buffer.getInt(32);
+
+		int stringIndexOffset = HEADER_SIZE + nsCount * 4;
+		int stringDataOffset = stringIndexOffset + (stringCount + 1) * 4;
+		this.symbols = new SymbolTable(buffer, stringIndexOffset, stringDataOffset, stringCount);
+
+		int classIndexOffset = stringDataOffset + buffer.getInt(stringIndexOffset + stringCount * 4);
+
+		if (classIndexOffset + classCount * 4L > buffer.limit()) throw new IOException("truncated mapping snapshot");
+
+		String[] namespaces = new String[nsCount];
+
+		for (int i = 0; i < nsCount; i++) {
+			namespaces[i] = getString(buffer.getInt(HEADER_SIZE + i * 4));
+		}
+
+		this.namespaces = Collections.unmodifiableList(Arrays.asList(namespaces));
+
+		ClassDef[] classes = new ClassDef[classCount];
+
+		for (int i = 0; i < classCount; i++) {
+			classes[i] = new ClassView(buffer.getInt(classIndexOffset + i * 4));
+		}
+
+		this.classes = Collections.unmodifiableList(Arrays.asList(classes));
+	}
+
+	/**
+	 * Maps an existing snapshot.
+	 *
+	 * @param source the text mappings the snapshot was created from, or null to skip the staleness check
+	 * @return the mapped tree, or null if the snapshot is missing, stale or unreadable
+	 */
+	public static BinaryTinyTree open(Path snapshot, Path source) throws IOException {
+		if (!Files.isRegularFile(snapshot)) return null;
+
+		ByteBuffer buffer;
+
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) return null;
+
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) return null;
+
+		if (source != null) {
+			if (!Files.isRegularFile(source)
+					|| buffer.getLong(8) != Files.size(source)
+					|| buffer.getLong(16) != Files.getLastModifiedTime(source).toMillis()) {
+				return null;
+			}
+		}
+
+		return new BinaryTinyTree(buffer);
+	}
+
+	public static void write(TinyTree tree, Path snapshot, Path source) throws IOException {
+		List<String> namespaces = tree.getMetadata().getNamespaces();
+		Writer writer = new Writer(namespaces);
+		String[] names = new String[namespaces.size()];
+		String[] descs = new String[namespaces.size()];
+
+		for (ClassDef cls : tree.getClasses()) {
+			writer.addClass(getNames(cls, namespaces, names));
+
+			for (FieldDef field : cls.getFields()) {
+				writer.addField(getNames(field, namespaces, names), getDescriptors(field, namespaces, descs));
+			}
+
+			for (MethodDef method : cls.getMethods()) {
+				writer.addMethod(getNames(method, namespaces, names), getDescriptors(method, namespaces, descs));
+			}
+		}
+
+		writer.write(snapshot, source);
+	}
+
+	private static String[] getNames(Mapped member, List<String> namespaces, String[] out) {
+		for (int i = 0; i < out.length; i++) {
+			out[i] = member.getName(namespaces.get(i));
+		}
+
+		return out;
+	}
+
+	private static String[] getDescriptors(Descriptored member, List<String> namespaces, String[] out) {
+		for (int i = 0; i < out.length; i++) {
+			out[i] = member.getDescriptor(namespaces.get(i));
+		}
+
+		return out;
+	}
+
+	/**
+	 * The string pool of the snapshot, every name and descriptor returned by this tree is an instance from it.
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	@Override
+	public TinyMetadata getMetadata() {
+		return metadata;
+	}
+
+	@Override
+	public Map<String, ClassDef> getDefaultNamespaceClassMap() {
+		Map<String, ClassDef> ret = defaultNamespaceClassMap;
+
+		if (ret == null) {
+			String ns = namespaces.get(0);
+			ret = new HashMap<>(classes.size() * 2);
+
+			for (ClassDef cls : classes) {
+				ret.put(cls.getName(ns), cls);
+			}
+
+			defaultNamespaceClassMap = ret = Collections.unmodifiableMap(ret);
+		}
+
+		return ret;
+	}
+
+	@Override
+	public Collection<ClassDef> getClasses() {
+		return classes;
+	}
+
+	private int getNamespaceIndex(String namespace) {
+		int ret = namespaces.indexOf(namespace);
+		if (ret < 0) throw new IllegalArgumentException("unknown namespace: "+namespace);
+
+		return ret;
+	}
+
+	private String getString(int index) {
+		return symbols.get(index);
+	}
+
+	private final TinyMetadata metadata = new TinyMetadata() {
+		@Override
+		public int getMajorVersion() {
+			return 2;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public List<String> getNamespaces() {
+			return namespaces;
+		}
+
+		@Override
+		public Map<String, String> getProperties() {
+			return Collections.emptyMap();
+		}
+
+		public int index(String namespace) {
+			return getNamespaceIndex(namespace);
+		}
+	};
+
+	// class record: names[ns], fieldCount, methodCount, members...
+	// member record: names[ns], descs[ns]
+	private final class ClassView implements ClassDef {
+		private final int offset;
+
+		ClassView(int offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public String getName(String namespace) {
+			return getString(buffer.getInt(offset + getNamespaceIndex(namespace) * 4));
+		}
+
+		@Override
+		public String getRawName(String namespace) {
+			return getName(namespace);
+		}
+
+		@Override
+		public String getComment() {
+			return null;
+		}
+
+		@Override
+		public Collection<FieldDef> getFields() {
+			int count = buffer.getInt(offset + namespaces.size() * 4);
+			List<FieldDef> ret = new ArrayList<>(count);
+			int memberOffset = getMembersOffset();
+
+			for (int i = 0; i < count; i++) {
+				ret.add(new MemberView(memberOffset));
+				memberOffset += namespaces.size() * 8;
+			}
+
+			return ret;
+		}
+
+		@Override
+		public Collection<MethodDef> getMethods() {
+			int fieldCount = buffer.getInt(offset + namespaces.size() * 4);
+			int count = buffer.getInt(offset + namespaces.size() * 4 + 4);
+			List<MethodDef> ret = new ArrayList<>(count);
+			int memberOffset = getMembersOffset() + fieldCount * namespaces.size() * 8;
+
+			for (int i = 0; i < count; i++) {
+				ret.add(new MemberView(memberOffset));
+				memberOffset += namespaces.size() * 8;
+			}
+
+			return ret;
+		}
+
+		private int getMembersOffset() {
+			return offset + namespaces.size() * 4 + 8;
+		}
+	}
+
+	private final class MemberView implements FieldDef, MethodDef {
+		private final int offset;
+
+		MemberView(int offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public String getName(String namespace) {
+			return getString(buffer.getInt(offset + getNamespaceIndex(namespace) * 4));
+		}
+
+		@Override
+		public String getRawName(String namespace) {
+			return getName(namespace);
+		}
+
+		@Override
+		public String getComment() {
+			return null;
+		}
+
+		@Override
+		public String getDescriptor(String namespace) {
+			return getString(buffer.getInt(offset + (namespaces.size() + getNamespaceIndex(namespace)) * 4));
+		}
+
+		@Override
+		public Collection<ParameterDef> getParameters() {
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Collection<LocalVariableDef> getLocalVariables() {
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Incrementally builds a snapshot, classes are followed by their fields and methods in any order.
+	 */
+	public static final class Writer {
+		private final int nsCount;
+		private final Map<String, Integer> stringIds = new HashMap<>();
+		private final ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+		private final List<Integer> stringOffsets = new ArrayList<>();
+		private final int[] namespaceIds;
+		private final List<ClassRecord> classes = new ArrayList<>();
+		private ClassRecord currentClass;
+
+		public Writer(List<String> namespaces) {
+			this.nsCount = namespaces.size();
+			this.namespaceIds = new int[nsCount];
+
+			for (int i = 0; i < nsCount; i++) {
+				namespaceIds[i] = intern(namespaces.get(i));
+			}
+		}
+
+		public void addClass(String... names) {
+			checkCount(names);
+
+			classes.add(currentClass = new ClassRecord(internAll(names)));
+		}
+
+		public void addField(String[] names, String[] descs) {
+			if (currentClass == null) throw new IllegalStateException("field without class");
+			checkCount(names);
+			checkCount(descs);
+
+			currentClass.fields.add(internAll(names));
+			currentClass.fields.add(internAll(descs));
+		}
+
+		public void addMethod(String[] names, String[] descs) {
+			if (currentClass == null) throw new IllegalStateException("method without class");
+			checkCount(names);
+			checkCount(descs);
+
+			currentClass.methods.add(internAll(names));
+			currentClass.methods.add(internAll(descs));
+		}
+
+		public void write(Path snapshot, Path source) throws IOException {
+			long sourceSize = source != null ? Files.size(source) : -1;
+			long sourceTime = source != null ? Files.getLastModifiedTime(source).toMillis() : -1;
+
+			Path tmp = snapshot.resolveSibling(snapshot.getFileName().toString() + ".tmp");
+
+			try (OutputStream os = Files.newOutputStream(tmp)) {
+				write(os, sourceSize, sourceTime);
+			}
+
+			try {
+				Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		private void write(OutputStream os, long sourceSize, long sourceTime) throws IOException {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(sourceSize);
+			out.writeLong(sourceTime);
+			out.writeInt(nsCount);
+			out.writeInt(stringOffsets.size());
+			out.writeInt(classes.size());
+
+			for (int id : namespaceIds) {
+				out.writeInt(id);
+			}
+
+			for (int offset : stringOffsets) {
+				out.writeInt(offset);
+			}
+
+			out.writeInt(stringData.size());
+			stringData.writeTo(out);
+
+			int classIndexOffset = HEADER_SIZE + nsCount * 4 + (stringOffsets.size() + 1) * 4 + stringData.size();
+			int offset = classIndexOffset + classes.size() * 4;
+
+			for (ClassRecord cls : classes) {
+				out.writeInt(offset);
+				offset += (nsCount + 2) * 4 + (cls.fields.size() + cls.methods.size()) * nsCount * 4;
+			}
+
+			for (ClassRecord cls : classes) {
+				writeInts(out, cls.names);
+				out.writeInt(cls.fields.size() / 2);
+				out.writeInt(cls.methods.size() / 2);
+
+				for (int[] ids : cls.fields) {
+					writeInts(out, ids);
+				}
+
+				for (int[] ids : cls.methods) {
+					writeInts(out, ids);
+				}
+			}
+
+			out.flush();
+		}
+
+		private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+			for (int value : values) {
+				out.writeInt(value);
+			}
+		}
+
+		private void checkCount(String[] values) {
+			if (values.length != nsCount) throw new IllegalArgumentException("expected "+nsCount+" namespaces, got "+values.length);
+		}
+
+		private int[] internAll(String[] values) {
+			int[] ret = new int[values.length];
+
+			for (int i = 0; i < values.length; i++) {
+				ret[i] = intern(values[i]);
+			}
+
+			return ret;
+		}
+
+		private int intern(String value) {
+			if (value == null) value = "";
+
+			Integer ret = stringIds.get(value);
+
+			if (ret == null) {
+				ret = stringOffsets.size();
+				stringIds.put(value, ret);
+				stringOffsets.add(stringData.size());
+
+				byte[] data = value.getBytes(StandardCharsets.UTF_8);
+				stringData.write(data, 0, data.length);
+			}
+
+			return ret;
+		}
+	}
+
+	private static final class ClassRecord {
+		final int[] names;
+		final List<int[]> fields = new ArrayList<>();
+		final List<int[]> methods = new ArrayList<>();
+
+		ClassRecord(int[] names) {
+			this.names = names;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Remaps the class names in field and method descriptors.
+ *
+ * <p>Descriptors are scanned once without regex or intermediate strings and the result is cached, the same
+ * descriptors repeat across most members of a mapping set.
+ */
+public final class DescriptorRemapper {
+	private final Function<String, String> classMapper;
+	private final UnaryOperator<String> interner;
+	private final Map<String, String> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * @param classMapper maps an internal class name, returns null or the input for unmapped classes
+	 */
+	public DescriptorRemapper(Function<String, String> classMapper) {
+		this(classMapper, UnaryOperator.identity());
+	}
+
+	/**
+	 * @param interner canonicalizes remapped descriptors before they are cached, see {@link SymbolTable#intern(String)}
+	 */
+	public DescriptorRemapper(Function<String, String> classMapper, UnaryOperator<String> interner) {
+		this.classMapper = classMapper;
+		this.interner = interner;
+	}
+
+	public String remap(String desc) {
+		if (desc.indexOf('L') < 0) return desc; // primitives only
+
+		String ret = cache.get(desc);
+
+		if (ret == null) {
+			ret = remap0(desc);
+			if (ret != desc) ret = interner.apply(ret);
+			cache.put(desc, ret);
+		}
+
+		return ret;
+	}
+
+	private String remap0(String desc) {
+		StringBuilder ret = null;
+		int copied = 0;
+
+		for (int i = 0, max = desc.length(); i < max; i++) {
+			if (desc.charAt(i) != 'L') continue;
+
+			int end = desc.indexOf(';', i + 1);
+			if (end < 0) break;
+
+			String name = desc.substring(i + 1, end);
+			String mapped = classMapper.apply(name);
+
+			if (mapped != null && !mapped.equals(name)) {
+				if (ret == null) ret = new StringBuilder(desc.length() + 16);
+
+				ret.append(desc, copied, i + 1).append(mapped);
+				copied = end;
+			}
+
+			i = end;
+		}
+
+		if (ret == null) return desc;
+
+		return ret.append(desc, copied, desc.length()).toString();
+	}
+}
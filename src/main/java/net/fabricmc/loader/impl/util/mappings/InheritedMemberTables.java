@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.Descriptored;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Per class tables of the member mappings a mapped class declares or inherits, flattened from the game's class
+ * hierarchy so the mixin remapper resolves owner dependent names with one probe instead of walking {@code ClassInfo}.
+ *
+ * <p>Only members with an ambiguous owner independent mapping are included, all others never reach the hierarchy
+ * lookup for a mapped owner. Tables follow the mixin remapper's walk: methods breadth first through super classes and
+ * interfaces, fields up the super class chain, both stopping at {@code java/} classes and keeping the first match.
+ * Classes with a supertype missing from the hierarchy get no table.
+ */
+public final class InheritedMemberTables {
+	private final Map<String, MemberNameTable> methods;
+	private final Map<String, MemberNameTable> fields;
+
+	private InheritedMemberTables(Map<String, MemberNameTable> methods, Map<String, MemberNameTable> fields) {
+		this.methods = methods;
+		this.fields = fields;
+	}
+
+	/**
+	 * Methods declared or inherited by {@code owner}, in source or target namespace, or null if it has no table.
+	 */
+	public MemberNameTable getMethods(String owner) {
+		return methods.get(owner);
+	}
+
+	/**
+	 * Fields declared or inherited by {@code owner}, in source or target namespace, or null if it has no table.
+	 */
+	public MemberNameTable getFields(String owner) {
+		return fields.get(owner);
+	}
+
+	public interface Hierarchy {
+		/**
+		 * Super class, or null for none, followed by the interfaces of the class {@code name}, or null if unknown.
+		 */
+		String[] getSupertypes(String name) throws IOException;
+	}
+
+	/**
+	 * @param hierarchy class hierarchy in the target namespace of {@code index}
+	 */
+	public static InheritedMemberTables build(MappingIndex index, Hierarchy hierarchy) throws IOException {
+		long startTime = System.nanoTime();
+		String from = index.getSourceNamespace();
+		String to = index.getTargetNamespace();
+		MemberNameTable methodNames = index.getMethodNames();
+		MemberNameTable fieldNames = index.getFieldNames();
+
+		// only the few classes declaring ambiguous members contribute entries
+		Map<String, ClassDef> classes = new HashMap<>();
+		Map<String, List<Descriptored>> ambiguousMethods = new HashMap<>();
+		Map<String, List<Descriptored>> ambiguousFields = new HashMap<>();
+
+		for (ClassDef classDef : index.getMappings().getClasses()) {
+			String name = classDef.getName(to);
+			classes.put(name, classDef);
+			collectAmbiguous(name, classDef.getMethods(), methodNames, from, ambiguousMethods);
+			collectAmbiguous(name, classDef.getFields(), fieldNames, from, ambiguousFields);
+		}
+
+		Map<String, String[]> supertypes = new HashMap<>();
+		Map<String, MemberNameTable> methods = new HashMap<>(classes.size() * 4);
+		Map<String, MemberNameTable> fields = new HashMap<>(classes.size() * 4);
+		// most classes share the empty table
+		Map<MemberNameTable, Boolean> distinctTables = new IdentityHashMap<>();
+		int covered = 0;
+
+		for (Map.Entry<String, ClassDef> entry : classes.entrySet()) {
+			String name = entry.getKey();
+			String sourceName = entry.getValue().getName(from);
+
+			MemberNameTable methodTable = buildMethodTable(name, hierarchy, supertypes, ambiguousMethods, from, to);
+
+			if (methodTable != null) {
+				methods.put(name, methodTable);
+				methods.put(sourceName, methodTable);
+				distinctTables.put(methodTable, Boolean.TRUE);
+				covered++;
+			}
+
+			MemberNameTable fieldTable = buildFieldTable(name, hierarchy, supertypes, ambiguousFields, from, to);
+
+			if (fieldTable != null) {
+				fields.put(name, fieldTable);
+				fields.put(sourceName, fieldTable);
+				distinctTables.put(fieldTable, Boolean.TRUE);
+			}
+		}
+
+		long entries = 0;
+		long bytes = 0;
+
+		for (MemberNameTable table : distinctTables.keySet()) {
+			entries += table.size();
+			bytes += 64 + table.capacity() * 13L; // headers, three references and a flag per slot
+		}
+
+		bytes += (methods.size() + fields.size()) * 48L; // map entries
+
+		Log.debug(LogCategory.MAPPINGS, "Built inherited member tables for %d of %d classes in %.1f ms, %d entries, ~%d KiB",
+				covered, classes.size(), (System.nanoTime() - startTime) * 1e-6, entries, bytes / 1024);
+
+		return new InheritedMemberTables(methods, fields);
+	}
+
+	private static void collectAmbiguous(String owner, Iterable<? extends Descriptored> members, MemberNameTable names, String from, Map<String, List<Descriptored>> out) {
+		for (Descriptored member : members) {
+			int slot = names.find(member.getName(from), member.getDescriptor(from));
+
+			if (slot != MemberNameTable.MISSING && names.isAmbiguous(slot)) {
+				out.computeIfAbsent(owner, ignore -> new ArrayList<>()).add(member);
+			}
+		}
+	}
+
+	private static MemberNameTable buildMethodTable(String name, Hierarchy hierarchy, Map<String, String[]> supertypes,
+			Map<String, List<Descriptored>> ambiguous, String from, String to) throws IOException {
+		List<Descriptored> members = new ArrayList<>();
+		Set<String> visited = new HashSet<>();
+		Queue<String> queue = new ArrayDeque<>();
+		queue.add(name);
+
+		while ((name = queue.poll()) != null) {
+			if (!visited.add(name)) continue;
+
+			String[] types = getSupertypes(name, hierarchy, supertypes);
+			if (types == null) return null;
+
+			members.addAll(ambiguous.getOrDefault(name, Collections.emptyList()));
+
+			for (String type : types) {
+				if (type != null && !type.startsWith("java/")) queue.add(type);
+			}
+		}
+
+		return toTable(members, from, to);
+	}
+
+	private static MemberNameTable buildFieldTable(String name, Hierarchy hierarchy, Map<String, String[]> supertypes,
+			Map<String, List<Descriptored>> ambiguous, String from, String to) throws IOException {
+		List<Descriptored> members = new ArrayList<>();
+
+		while (name != null) {
+			String[] types = getSupertypes(name, hierarchy, supertypes);
+			if (types == null) return null;
+
+			members.addAll(ambiguous.getOrDefault(name, Collections.emptyList()));
+			name = types[0] != null && !types[0].startsWith("java/") ? types[0] : null;
+		}
+
+		return toTable(members, from, to);
+	}
+
+	private static MemberNameTable toTable(List<Descriptored> members, String from, String to) {
+		if (members.isEmpty()) return MemberNameTable.EMPTY;
+
+		MemberNameTable.Builder builder = new MemberNameTable.Builder(members.size());
+
+		for (Descriptored member : members) {
+			builder.addFirst(member.getName(from), member.getDescriptor(from), member.getName(to));
+		}
+
+		return builder.build();
+	}
+
+	private static String[] getSupertypes(String name, Hierarchy hierarchy, Map<String, String[]> cache) throws IOException {
+		String[] ret = cache.get(name);
+
+		if (ret == null && !cache.containsKey(name)) {
+			ret = hierarchy.getSupertypes(name);
+			cache.put(name, ret);
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.Descriptored;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+import java.util.*;
+
+/**
+ * Lookup tables over a {@link TinyTree} for one namespace pair, each table is built on first use and shared by all
+ * consumers of the pair.
+ *
+ * <p>Tables only reference the tree's own strings, for a {@link BinaryTinyTree} these are the interned symbols of its
+ * {@link SymbolTable}.
+ */
+public final class MappingIndex {
+	private final TinyTree mappings;
+	private final String from;
+	private final String to;
+
+	private volatile Map<String, ClassEntry> classes;
+	private volatile Set<String> allPossibleClassNames;
+	private volatile MemberNameTable fieldNames;
+	private volatile MemberNameTable methodNames;
+	private volatile Map<String, Member> fieldsByName;
+	private volatile Map<String, Member> methodsByName;
+	private final DescriptorRemapper descriptorRemapper;
+
+	public MappingIndex(TinyTree mappings, String from, String to) {
+		this.mappings = mappings;
+		this.from = from;
+		this.to = to;
+
+		if (mappings instanceof BinaryTinyTree) {
+			SymbolTable symbols = ((BinaryTinyTree) mappings).getSymbols();
+			descriptorRemapper = new DescriptorRemapper(this::mapClassName, symbols::intern);
+		} else {
+			descriptorRemapper = new DescriptorRemapper(this::mapClassName);
+		}
+	}
+
+	public TinyTree getMappings() {
+		return mappings;
+	}
+
+	public String getSourceNamespace() {
+		return from;
+	}
+
+	public String getTargetNamespace() {
+		return to;
+	}
+
+	public ClassDef getClass(String name) {
+		ClassEntry entry = getClasses().get(name);
+
+		return entry != null ? entry.def : null;
+	}
+
+	public String mapClassName(String name) {
+		ClassEntry entry = getClasses().get(name);
+
+		return entry != null ? entry.def.getName(to) : name;
+	}
+
+	public DescriptorRemapper getDescriptorRemapper() {
+		return descriptorRemapper;
+	}
+
+	public FieldDef getField(String owner, String name, String desc) {
+		ClassEntry entry = getClasses().get(owner);
+
+		return entry != null ? entry.getFields().get(new MemberKey(name, desc)) : null;
+	}
+
+	public MethodDef getMethod(String owner, String name, String desc) {
+		ClassEntry entry = getClasses().get(owner);
+
+		return entry != null ? entry.getMethods().get(new MemberKey(name, desc)) : null;
+	}
+
+	/**
+	 * All class names of the source and target namespace.
+	 */
+	public Set<String> getAllPossibleClassNames() {
+		Set<String> ret = allPossibleClassNames;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = allPossibleClassNames) == null) {
+					ret = new HashSet<>();
+
+					for (ClassDef classDef : mappings.getClasses()) {
+						ret.add(classDef.getName(from));
+						ret.add(classDef.getName(to));
+					}
+
+					allPossibleClassNames = ret = Collections.unmodifiableSet(ret);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Owner independent field name mappings.
+	 */
+	public MemberNameTable getFieldNames() {
+		MemberNameTable ret = fieldNames;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = fieldNames) == null) {
+					fieldNames = ret = buildNameTable(false);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Owner independent method name mappings.
+	 */
+	public MemberNameTable getMethodNames() {
+		MemberNameTable ret = methodNames;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = methodNames) == null) {
+					methodNames = ret = buildNameTable(true);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Field with the given source name in the first class declaring one, for references that don't name their owner.
+	 */
+	public Member findField(String name) {
+		Map<String, Member> ret = fieldsByName;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = fieldsByName) == null) {
+					fieldsByName = ret = buildOwnerTable(false);
+				}
+			}
+		}
+
+		return ret.get(name);
+	}
+
+	/**
+	 * Method with the given source name in the first class declaring one, for references that don't name their owner.
+	 */
+	public Member findMethod(String name) {
+		Map<String, Member> ret = methodsByName;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = methodsByName) == null) {
+					methodsByName = ret = buildOwnerTable(true);
+				}
+			}
+		}
+
+		return ret.get(name);
+	}
+
+	private Map<String, ClassEntry> getClasses() {
+		Map<String, ClassEntry> ret = classes;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = classes) == null) {
+					ret = new HashMap<>(mappings.getClasses().size() * 2);
+
+					for (ClassDef classDef : mappings.getClasses()) {
+						ret.put(classDef.getName(from), new ClassEntry(classDef));
+					}
+
+					classes = ret;
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private MemberNameTable buildNameTable(boolean methods) {
+		MemberNameTable.Builder ret = new MemberNameTable.Builder();
+
+		for (ClassDef classDef : mappings.getClasses()) {
+			for (Descriptored member : methods ? classDef.getMethods() : classDef.getFields()) {
+				ret.add(member.getName(from), member.getDescriptor(from), member.getName(to));
+				// the mixin remapper only maps methods without descriptor, fields then keep their name
+				if (methods) ret.addNameOnly(member.getName(from), member.getName(to));
+			}
+		}
+
+		return ret.build();
+	}
+
+	private Map<String, Member> buildOwnerTable(boolean methods) {
+		Map<String, Member> ret = new HashMap<>();
+
+		for (ClassDef classDef : mappings.getClasses()) {
+			for (Descriptored member : methods ? classDef.getMethods() : classDef.getFields()) {
+				ret.putIfAbsent(member.getName(from), new Member(classDef, member));
+			}
+		}
+
+		return ret;
+	}
+
+	public static final class Member {
+		public final ClassDef owner;
+		public final Descriptored def;
+
+		Member(ClassDef owner, Descriptored def) {
+			this.owner = owner;
+			this.def = def;
+		}
+	}
+
+	/**
+	 * Member name + descriptor pair, references the strings instead of concatenating them into a new key.
+	 */
+	static final class MemberKey {
+		final String name;
+		final String desc;
+
+		MemberKey(String name, String desc) {
+			this.name = name;
+			this.desc = desc;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MemberKey)) return false;
+
+			MemberKey o = (MemberKey) obj;
+
+			return name.equals(o.name) && Objects.equals(desc, o.desc);
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode() * 31 + Objects.hashCode(desc);
+		}
+	}
+
+	private final class ClassEntry {
+		final ClassDef def;
+		private volatile Map<MemberKey, FieldDef> fields;
+		private volatile Map<MemberKey, MethodDef> methods;
+
+		ClassEntry(ClassDef def) {
+			this.def = def;
+		}
+
+		Map<MemberKey, FieldDef> getFields() {
+			Map<MemberKey, FieldDef> ret = fields;
+
+			if (ret == null) {
+				ret = new HashMap<>();
+
+				for (FieldDef field : def.getFields()) {
+					ret.put(new MemberKey(field.getName(from), field.getDescriptor(from)), field);
+				}
+
+				fields = ret;
+			}
+
+			return ret;
+		}
+
+		Map<MemberKey, MethodDef> getMethods() {
+			Map<MemberKey, MethodDef> ret = methods;
+
+			if (ret == null) {
+				ret = new HashMap<>();
+
+				for (MethodDef method : def.getMethods()) {
+					ret.put(new MemberKey(method.getName(from), method.getDescriptor(from)), method);
+				}
+
+				methods = ret;
+			}
+
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+/**
+ * Owner independent member name mappings keyed by source name and descriptor, using open addressing over parallel
+ * arrays so lookups hash the two strings in place instead of building a key.
+ *
+ * <p>Name only entries, looked up with a null descriptor, keep the first mapping added. Name and descriptor entries
+ * whose members map to different names are flagged ambiguous, the target name then depends on the owner.
+ */
+public final class MemberNameTable {
+	public static final int MISSING = -1;
+	static final MemberNameTable EMPTY = new Builder(0).build();
+
+	private final String[] names;
+	private final String[] descs;
+	private final String[] targets;
+	private final boolean[] ambiguous;
+	private final int size;
+
+	private MemberNameTable(Builder builder) {
+		this.names = builder.names;
+		this.descs = builder.descs;
+		this.targets = builder.targets;
+		this.ambiguous = builder.ambiguous;
+		this.size = builder.size;
+	}
+
+	/**
+	 * Slot of the entry for {@code name} and {@code desc}, or {@link #MISSING}.
+	 *
+	 * @param desc the descriptor, or null to look up by name only
+	 */
+	public int find(String name, String desc) {
+		return find(names, descs, name, desc);
+	}
+
+	public String getTarget(int slot) {
+		return targets[slot];
+	}
+
+	/**
+	 * Whether members with the name and descriptor of {@code slot} map to different names depending on their owner.
+	 */
+	public boolean isAmbiguous(int slot) {
+		return ambiguous[slot];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	int capacity() {
+		return names.length;
+	}
+
+	private static int find(String[] names, String[] descs, String name, String desc) {
+		int mask = names.length - 1;
+
+		for (int i = hash(name, desc) & mask; ; i = (i + 1) & mask) {
+			String slotName = names[i];
+			if (slotName == null) return MISSING;
+
+			String slotDesc = descs[i];
+
+			if ((slotName == name || slotName.equals(name))
+					&& (slotDesc == desc || slotDesc != null && slotDesc.equals(desc))) {
+				return i;
+			}
+		}
+	}
+
+	private static int hash(String name, String desc) {
+		// String caches its hash code, spread it since the low bits pick the slot
+		int h = name.hashCode() * 31 + (desc != null ? desc.hashCode() : 0);
+
+		return (h ^ h >>> 16) * 0x9e3779b9;
+	}
+
+	/**
+	 * Collects the entries, the table itself is never modified once built so it can be read from any thread.
+	 */
+	static final class Builder {
+		private String[] names;
+		private String[] descs;
+		private String[] targets;
+		private boolean[] ambiguous;
+		private int size;
+
+		Builder() {
+			this(128);
+		}
+
+		Builder(int expectedSize) {
+			int capacity = 2;
+			while (capacity < expectedSize * 2 + 1) capacity <<= 1;
+
+			allocate(capacity);
+		}
+
+		void add(String name, String desc, String target) {
+			if (desc != null) put(name, desc, target, true);
+		}
+
+		/**
+		 * Adds a name only entry unless there already is one.
+		 */
+		void addNameOnly(String name, String target) {
+			put(name, null, target, false);
+		}
+
+		/**
+		 * Adds a name and descriptor entry unless there already is one, without name only entry or ambiguity tracking.
+		 */
+		void addFirst(String name, String desc, String target) {
+			put(name, desc, target, false);
+		}
+
+		int size() {
+			return size;
+		}
+
+		MemberNameTable build() {
+			MemberNameTable ret = new MemberNameTable(this);
+			names = null; // the arrays belong to the table now
+
+			return ret;
+		}
+
+		private void put(String name, String desc, String target, boolean trackAmbiguity) {
+			if ((size + 1) * 2 > names.length) grow();
+
+			int slot = find(names, descs, name, desc);
+
+			if (slot != MISSING) {
+				if (trackAmbiguity && !targets[slot].equals(target)) ambiguous[slot] = true;
+				return;
+			}
+
+			insert(name, desc, target, false);
+			size++;
+		}
+
+		private void insert(String name, String desc, String target, boolean isAmbiguous) {
+			int mask = names.length - 1;
+			int i = hash(name, desc) & mask;
+
+			while (names[i] != null) {
+				i = (i + 1) & mask;
+			}
+
+			names[i] = name;
+			descs[i] = desc;
+			targets[i] = target;
+			ambiguous[i] = isAmbiguous;
+		}
+
+		private void grow() {
+			String[] oldNames = names;
+			String[] oldDescs = descs;
+			String[] oldTargets = targets;
+			boolean[] oldAmbiguous = ambiguous;
+
+			allocate(oldNames.length * 2);
+
+			for (int i = 0; i < oldNames.length; i++) {
+				if (oldNames[i] != null) insert(oldNames[i], oldDescs[i], oldTargets[i], oldAmbiguous[i]);
+			}
+		}
+
+		private void allocate(int capacity) {
+			names = new String[capacity];
+			descs = new String[capacity];
+			targets = new String[capacity];
+			ambiguous = new boolean[capacity];
+		}
+	}
+}
@@ -16,54 +16,52 @@
 
 package net.fabricmc.loader.impl.util.mappings;
 
-import net.fabricmc.mapping.tree.ClassDef;
-import net.fabricmc.mapping.tree.Descriptored;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.mapping.util.MixinRemapper;
 import org.spongepowered.asm.mixin.transformer.ClassInfo;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Mixin remapper for intermediary mods in a named runtime.
+ *
+ * <p>All lookup tables are built in the constructor and never modified afterwards, the hierarchy caches are concurrent
+ * maps, so the remapper can be used from any number of threads preparing mixins or transforming classes.
+ */
 public class MixinIntermediaryDevRemapper extends MixinRemapper {
-	private static final String ambiguousName = "<ambiguous>"; // dummy value for ambiguous mappings - needs querying with additional owner and/or desc info
-
-	private final Set<String> allPossibleClassNames = new HashSet<>();
-	private final Map<String, String> nameFieldLookup = new HashMap<>();
-	private final Map<String, String> nameMethodLookup = new HashMap<>();
-	private final Map<String, String> nameDescFieldLookup = new HashMap<>();
-	private final Map<String, String> nameDescMethodLookup = new HashMap<>();
+	private final Set<String> allPossibleClassNames;
+	private final MemberNameTable methodNames;
+	private final MemberNameTable fieldNames;
+	private final InheritedMemberTables inheritedMembers;
+	// hierarchy walks by owner, name and desc, unmapped results are stored as the name itself
+	private final ConcurrentMap<HierarchyKey, String> methodHierarchyCache = new ConcurrentHashMap<>();
+	private final ConcurrentMap<HierarchyKey, String> fieldHierarchyCache = new ConcurrentHashMap<>();
+	private final LongAdder hierarchyCacheHits = new LongAdder();
+	private final LongAdder hierarchyCacheMisses = new LongAdder();
 
 	public MixinIntermediaryDevRemapper(TinyTree mappings, String from, String to) {
-		super(mappings, from, to);
-
-		for (ClassDef classDef : mappings.getClasses()) {
-			allPossibleClassNames.add(classDef.getName(from));
-			allPossibleClassNames.add(classDef.getName(to));
-
-			putMemberInLookup(from, to, classDef.getFields(), nameFieldLookup, nameDescFieldLookup);
-			putMemberInLookup(from, to, classDef.getMethods(), nameMethodLookup, nameDescMethodLookup);
-		}
+		this(new MappingIndex(mappings, from, to));
 	}
 
-	private <T extends Descriptored> void putMemberInLookup(String from, String to, Collection<T> descriptored, Map<String, String> nameMap, Map<String, String> nameDescMap) {
-		for (T field : descriptored) {
-			String nameFrom = field.getName(from);
-			String descFrom = field.getDescriptor(from);
-			String nameTo = field.getName(to);
-
-			String prev = nameMap.putIfAbsent(nameFrom, nameTo);
-
-			if (prev != null && prev != ambiguousName && !prev.equals(nameTo)) {
-				nameDescMap.put(nameFrom, ambiguousName);
-			}
+	public MixinIntermediaryDevRemapper(MappingIndex index) {
+		this(index, null);
+	}
 
-			String key = getNameDescKey(nameFrom, descFrom);
-			prev = nameDescMap.putIfAbsent(key, nameTo);
+	/**
+	 * @param inheritedMembers resolves owner dependent names of mapped classes without walking {@code ClassInfo}, or null
+	 */
+	public MixinIntermediaryDevRemapper(MappingIndex index, InheritedMemberTables inheritedMembers) {
+		super(index.getMappings(), index.getSourceNamespace(), index.getTargetNamespace());
 
-			if (prev != null && prev != ambiguousName && !prev.equals(nameTo)) {
-				nameDescMap.put(key, ambiguousName);
-			}
-		}
+		this.allPossibleClassNames = index.getAllPossibleClassNames();
+		this.methodNames = index.getMethodNames();
+		this.fieldNames = index.getFieldNames();
+		this.inheritedMembers = inheritedMembers;
 	}
 
 	private void throwAmbiguousLookup(String type, String name, String desc) {
@@ -96,21 +94,15 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 	public String mapMethodName(String owner, String name, String desc) {
 		// handle unambiguous values early
 		if (owner == null || allPossibleClassNames.contains(owner)) {
-			String newName;
+			int slot = methodNames.find(name, desc);
 
-			if (desc == null) {
-				newName = nameMethodLookup.get(name);
-			} else {
-				newName = nameDescMethodLookup.get(getNameDescKey(name, desc));
-			}
-
-			if (newName != null) {
-				if (newName == ambiguousName) {
+			if (slot != MemberNameTable.MISSING) {
+				if (methodNames.isAmbiguous(slot)) {
 					if (owner == null) {
 						throwAmbiguousLookup("method", name, desc);
 					}
 				} else {
-					return newName;
+					return methodNames.getTarget(slot);
 				}
 			} else if (owner == null) {
 				return name;
@@ -131,6 +123,27 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 			}
 		}
 
+		MemberNameTable inherited = inheritedMembers != null && desc != null ? inheritedMembers.getMethods(owner) : null;
+		if (inherited != null) return findInherited(inherited, name, desc);
+
+		HierarchyKey key = new HierarchyKey(owner, name, desc);
+		String ret = methodHierarchyCache.get(key);
+
+		if (ret != null) {
+			hierarchyCacheHits.increment();
+			return ret;
+		}
+
+		hierarchyCacheMisses.increment();
+		// not computeIfAbsent, resolving may load classes and get back here for other members
+		ret = resolveMethodName(owner, name, desc);
+		String prev = methodHierarchyCache.putIfAbsent(key, ret);
+
+		return prev != null ? prev : ret;
+	}
+
+	// package-private so tests can resolve against their own hierarchy
+	String resolveMethodName(String owner, String name, String desc) {
 		Queue<ClassInfo> classInfos = new ArrayDeque<>();
 		classInfos.add(ClassInfo.forName(owner));
 
@@ -171,15 +184,15 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 	public String mapFieldName(String owner, String name, String desc) {
 		// handle unambiguous values early
 		if (owner == null || allPossibleClassNames.contains(owner)) {
-			String newName = nameDescFieldLookup.get(getNameDescKey(name, desc));
+			int slot = fieldNames.find(name, desc);
 
-			if (newName != null) {
-				if (newName == ambiguousName) {
+			if (slot != MemberNameTable.MISSING) {
+				if (fieldNames.isAmbiguous(slot)) {
 					if (owner == null) {
 						throwAmbiguousLookup("field", name, desc);
 					}
 				} else {
-					return newName;
+					return fieldNames.getTarget(slot);
 				}
 			} else if (owner == null) {
 				return name;
@@ -200,6 +213,25 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 			}
 		}
 
+		MemberNameTable inherited = inheritedMembers != null && desc != null ? inheritedMembers.getFields(owner) : null;
+		if (inherited != null) return findInherited(inherited, name, desc);
+
+		HierarchyKey key = new HierarchyKey(owner, name, desc);
+		String ret = fieldHierarchyCache.get(key);
+
+		if (ret != null) {
+			hierarchyCacheHits.increment();
+			return ret;
+		}
+
+		hierarchyCacheMisses.increment();
+		ret = resolveFieldName(owner, name, desc);
+		String prev = fieldHierarchyCache.putIfAbsent(key, ret);
+
+		return prev != null ? prev : ret;
+	}
+
+	String resolveFieldName(String owner, String name, String desc) {
 		ClassInfo c = ClassInfo.forName(map(owner));
 
 		while (c != null) {
@@ -220,7 +252,59 @@ public class MixinIntermediaryDevRemapper extends MixinRemapper {
 		return name;
 	}
 
-	private static String getNameDescKey(String name, String descriptor) {
-		return name+ ";;" + descriptor;
+	private String findInherited(MemberNameTable inherited, String name, String desc) {
+		int slot = inherited.find(name, desc);
+
+		if (slot == MemberNameTable.MISSING) {
+			// the tables are keyed by source descriptors
+			String unmapDesc = unmapDesc(desc);
+			if (!unmapDesc.equals(desc)) slot = inherited.find(name, unmapDesc);
+		}
+
+		return slot != MemberNameTable.MISSING ? inherited.getTarget(slot) : name;
+	}
+
+	public long getHierarchyCacheHits() {
+		return hierarchyCacheHits.sum();
+	}
+
+	public long getHierarchyCacheMisses() {
+		return hierarchyCacheMisses.sum();
+	}
+
+	public void logHierarchyCacheStats() {
+		long hits = getHierarchyCacheHits();
+		long total = hits + getHierarchyCacheMisses();
+
+		Log.debug(LogCategory.MIXIN, "Mixin remapper hierarchy cache: %d hits of %d lookups (%.1f%%), %d methods and %d fields cached",
+				hits, total, total > 0 ? hits * 100.0 / total : 0, methodHierarchyCache.size(), fieldHierarchyCache.size());
+	}
+
+	private static final class HierarchyKey {
+		final String owner;
+		final String name;
+		final String desc;
+		final int hash;
+
+		HierarchyKey(String owner, String name, String desc) {
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+			this.hash = (owner.hashCode() * 31 + name.hashCode()) * 31 + Objects.hashCode(desc);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof HierarchyKey)) return false;
+
+			HierarchyKey o = (HierarchyKey) obj;
+
+			return hash == o.hash && owner.equals(o.owner) && name.equals(o.name) && Objects.equals(desc, o.desc);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
 	}
 }
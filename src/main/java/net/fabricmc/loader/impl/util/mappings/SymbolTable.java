@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned names and descriptors of a mapping set, stored once as UTF-8 in a single (usually memory-mapped) arena.
+ *
+ * <p>Symbols are addressed by id and decoded to a {@link String} on first access, every later access returns the same
+ * instance. {@link #intern(String)} canonicalizes strings produced at runtime, e.g. remapped descriptors, to the arena
+ * instance if the arena contains them so all mapping consumers share one copy.
+ */
+public final class SymbolTable {
+	private final ByteBuffer arena;
+	private final int indexOffset;
+	private final int dataOffset;
+	private final String[] strings;
+	private volatile int[] hashTable; // symbol id + 1 by content hash, 0 = empty
+	private final Map<String, String> extra = new ConcurrentHashMap<>();
+
+	/**
+	 * @param arena buffer holding {@code count + 1} int offsets at {@code indexOffset} and the UTF-8 data they point
+	 *              into at {@code dataOffset}
+	 */
+	SymbolTable(ByteBuffer arena, int indexOffset, int dataOffset, int count) {
+		this.arena = arena;
+		this.indexOffset = indexOffset;
+		this.dataOffset = dataOffset;
+		this.strings = new String[count];
+	}
+
+	public int size() {
+		return strings.length;
+	}
+
+	/**
+	 * Size of the UTF-8 data of all symbols in bytes.
+	 */
+	public int getDataSize() {
+		return getStart(strings.length) - getStart(0);
+	}
+
+	public String get(int id) {
+		String ret = strings[id];
+
+		if (ret == null) {
+			int start = getStart(id);
+			byte[] data = new byte[getStart(id + 1) - start];
+
+			ByteBuffer dup = arena.duplicate();
+			dup.position(dataOffset + start);
+			dup.get(data);
+
+			ret = new String(data, StandardCharsets.UTF_8);
+
+			// racing decodes may produce different instances, only the first one written gets handed out afterwards
+			synchronized (strings) {
+				if (strings[id] == null) {
+					strings[id] = ret;
+				} else {
+					ret = strings[id];
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Returns the id of the symbol equal to {@code str}, or -1 if the arena doesn't contain it.
+	 */
+	public int find(String str) {
+		int[] table = getHashTable();
+		byte[] data = str.getBytes(StandardCharsets.UTF_8);
+		int mask = table.length - 1;
+
+		for (int i = hash(data) & mask; table[i] != 0; i = (i + 1) & mask) {
+			int id = table[i] - 1;
+
+			if (equals(id, data)) return id;
+		}
+
+		return -1;
+	}
+
+	public String intern(String str) {
+		if (str == null) return null;
+
+		int id = find(str);
+		if (id >= 0) return get(id);
+
+		String prev = extra.putIfAbsent(str, str);
+
+		return prev != null ? prev : str;
+	}
+
+	private int[] getHashTable() {
+		int[] ret = hashTable;
+
+		if (ret == null) {
+			synchronized (this) {
+				if ((ret = hashTable) == null) {
+					// hashed straight from the arena bytes, nothing needs to be decoded
+					ret = new int[Integer.highestOneBit(Math.max(strings.length, 1) * 2 - 1) * 2];
+					int mask = ret.length - 1;
+
+					for (int id = 0; id < strings.length; id++) {
+						int i = hash(id) & mask;
+
+						while (ret[i] != 0) {
+							i = (i + 1) & mask;
+						}
+
+						ret[i] = id + 1;
+					}
+
+					hashTable = ret;
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private int getStart(int id) {
+		return arena.getInt(indexOffset + id * 4);
+	}
+
+	private int hash(int id) {
+		int ret = 0;
+
+		for (int i = dataOffset + getStart(id), max = dataOffset + getStart(id + 1); i < max; i++) {
+			ret = 31 * ret + arena.get(i);
+		}
+
+		return mix(ret);
+	}
+
+	private static int hash(byte[] data) {
+		int ret = 0;
+
+		for (byte b : data) {
+			ret = 31 * ret + b;
+		}
+
+		return mix(ret);
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private boolean equals(int id, byte[] data) {
+		int start = dataOffset + getStart(id);
+		if (dataOffset + getStart(id + 1) - start != data.length) return false;
+
+		for (int i = 0; i < data.length; i++) {
+			if (arena.get(start + i) != data[i]) return false;
+		}
+
+		return true;
+	}
+}
@@ -22,6 +22,8 @@ import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.tinyremapper.IMappingProvider;
 
+import java.util.Set;
+
 public class TinyRemapperMappingsHelper {
 	private TinyRemapperMappingsHelper() { }
 
@@ -29,10 +31,27 @@ public class TinyRemapperMappingsHelper {
 		return new IMappingProvider.Member(className, memberName, descriptor);
 	}
 
+	public static IMappingProvider create(MappingIndex index) {
+		return create(index.getMappings(), index.getSourceNamespace(), index.getTargetNamespace());
+	}
+
+	/**
+	 * Provider for the mappings of the classes with the given source names only.
+	 */
+	public static IMappingProvider create(MappingIndex index, Set<String> classes) {
+		return create(index.getMappings(), index.getSourceNamespace(), index.getTargetNamespace(), classes);
+	}
+
 	public static IMappingProvider create(TinyTree mappings, String from, String to) {
+		return create(mappings, from, to, null);
+	}
+
+	private static IMappingProvider create(TinyTree mappings, String from, String to, Set<String> classes) {
 		return (acceptor) -> {
 			for (ClassDef classDef : mappings.getClasses()) {
 				String className = classDef.getName(from);
+				if (classes != null && !classes.contains(className)) continue;
+
 				acceptor.acceptClass(className, classDef.getName(to));
 
 				for (FieldDef field : classDef.getFields()) {
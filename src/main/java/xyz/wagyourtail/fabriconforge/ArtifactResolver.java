@@ -0,0 +1,161 @@
+package xyz.wagyourtail.fabriconforge;
+
+import net.fabricmc.loader.impl.util.SystemProperties;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Finds the artifacts needed for mapping generation, preferring local copies over downloads.
+ *
+ * <p>Lookup order: directories from {@link SystemProperties#MAPPINGS_REPOSITORIES} (maven layout or flat), the local
+ * maven repository, the gradle module cache, forge's libraries folder, earlier downloads in {@code .fabric/artifacts}
+ * and finally the remote repository unless {@link SystemProperties#MAPPINGS_OFFLINE} is set.
+ */
+public class ArtifactResolver {
+    public static final String ARTIFACTS_DIR_NAME = "artifacts";
+    public static final String FABRIC_MAVEN = "https://maven.fabricmc.net/";
+    public static final String FORGE_MAVEN = "https://files.minecraftforge.net/maven/";
+
+    private final List<Path> mavenRepositories = new ArrayList<>();
+    private final List<Path> flatRepositories = new ArrayList<>();
+    private final List<Path> gradleCaches = new ArrayList<>();
+    private final Path downloadDir;
+    private final boolean offline;
+
+    public ArtifactResolver(Path cacheDir) {
+        String repositories = System.getProperty(SystemProperties.MAPPINGS_REPOSITORIES);
+        if (repositories != null) {
+            for (String repository : repositories.split(File.pathSeparator)) {
+                if (repository.isEmpty()) continue;
+                Path path = Paths.get(repository);
+                // configured folders may either mirror the maven layout or just contain the files
+                mavenRepositories.add(path);
+                flatRepositories.add(path);
+            }
+        }
+
+        String home = System.getProperty("user.home");
+        if (home != null) {
+            mavenRepositories.add(Paths.get(home, ".m2", "repository"));
+        }
+
+        String gradleHome = System.getenv("GRADLE_USER_HOME");
+        if (gradleHome != null) {
+            gradleCaches.add(Paths.get(gradleHome, "caches", "modules-2", "files-2.1"));
+        } else if (home != null) {
+            gradleCaches.add(Paths.get(home, ".gradle", "caches", "modules-2", "files-2.1"));
+        }
+
+        Path gameDir = cacheDir.toAbsolutePath().getParent();
+        if (gameDir != null) {
+            mavenRepositories.add(gameDir.resolve("libraries"));
+        }
+
+        this.downloadDir = cacheDir.resolve(ARTIFACTS_DIR_NAME);
+        mavenRepositories.add(downloadDir);
+
+        this.offline = Boolean.getBoolean(SystemProperties.MAPPINGS_OFFLINE);
+    }
+
+    public Path resolve(Artifact artifact) throws IOException {
+        Path local = findLocal(artifact);
+        if (local != null) {
+            Log.debug(LogCategory.MAPPINGS, "Using local %s from %s", artifact, local);
+            return local;
+        }
+
+        if (offline) {
+            throw new NoSuchFileException(String.format("%s not found locally and %s is set, searched %s, %s and %s", artifact, SystemProperties.MAPPINGS_OFFLINE, mavenRepositories, flatRepositories, gradleCaches));
+        }
+
+        return download(artifact);
+    }
+
+    private Path findLocal(Artifact artifact) throws IOException {
+        for (Path repository : mavenRepositories) {
+            Path path = repository.resolve(artifact.getPath());
+            if (Files.isRegularFile(path)) return path;
+        }
+
+        for (Path repository : flatRepositories) {
+            Path path = repository.resolve(artifact.getFileName());
+            if (Files.isRegularFile(path)) return path;
+        }
+
+        // gradle keeps every file in a folder named after its sha1
+        for (Path cache : gradleCaches) {
+            Path versionDir = cache.resolve(artifact.group).resolve(artifact.name).resolve(artifact.version);
+            if (!Files.isDirectory(versionDir)) continue;
+
+            try (Stream<Path> hashDirs = Files.list(versionDir)) {
+                for (Path hashDir : (Iterable<Path>) hashDirs::iterator) {
+                    Path path = hashDir.resolve(artifact.getFileName());
+                    if (Files.isRegularFile(path)) return path;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private Path download(Artifact artifact) throws IOException {
+        URL url = new URL(artifact.repository + artifact.getPath());
+        Path target = downloadDir.resolve(artifact.getPath());
+        Files.createDirectories(target.getParent());
+
+        Log.info(LogCategory.MAPPINGS, "Downloading %s", url);
+        Path tmp = Files.createTempFile(target.getParent(), artifact.getFileName(), ".tmp");
+
+        try {
+            try (InputStream is = url.openStream()) {
+                Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        return target;
+    }
+
+    public static class Artifact {
+        public final String repository;
+        public final String group;
+        public final String name;
+        public final String version;
+        public final String classifier;
+        public final String extension;
+
+        public Artifact(String repository, String group, String name, String version, String classifier, String extension) {
+            this.repository = repository;
+            this.group = group;
+            this.name = name;
+            this.version = version;
+            this.classifier = classifier;
+            this.extension = extension;
+        }
+
+        public String getFileName() {
+            return name + "-" + version + (classifier != null ? "-" + classifier : "") + "." + extension;
+        }
+
+        public String getPath() {
+            return group.replace('.', '/') + "/" + name + "/" + version + "/" + getFileName();
+        }
+
+        @Override
+        public String toString() {
+            return group + ":" + name + ":" + version + (classifier != null ? ":" + classifier : "") + "@" + extension;
+        }
+    }
+}
@@ -1,72 +1,102 @@
 package xyz.wagyourtail.fabriconforge;
 
-import net.minecraftforge.fml.loading.FMLLoader;
+import net.fabricmc.loader.impl.util.mappings.BinaryTinyTree;
+import net.fabricmc.loader.impl.util.mappings.DescriptorRemapper;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class CreateVolderYarn {
     public static String VOLDERYARN = "volderyarn-%s-%s-%s.tiny";
+    public static String VOLDERYARN_SNAPSHOT = "volderyarn-%s-%s-%s.bin";
+    private static final int CHUNK_SIZE = 256; // classes per generation task
 
-    public static void genMappings(Path cacheDir, String mcVersion, String channel, String version) throws IOException {
-        //download yarn intermediary
-        URL intURL = new URL(String.format("https://maven.fabricmc.net/net/fabricmc/intermediary/%s/intermediary-%s-v2.jar", mcVersion, mcVersion));
-        String intermediary = readZipContentFromURL(intURL, "mappings/mappings.tiny").get("mappings/mappings.tiny");
-        Map<String, ClassData> mappings = parseTinyMap(intermediary);
+    /**
+     * Merges intermediary, srg and (in dev) mcp names into a tiny file mapping intermediary to named, plus its binary
+     * snapshot.
+     *
+     * @param mcpZip mcp names, or null to keep srg names
+     */
+    public static void genMappings(Path intJar, Path srgZip, Path mcpZip, Path outputFile, Path snapshotFile) throws IOException {
+        //yarn intermediary
+        Map<String, ClassData> mappings = new LinkedHashMap<>();
+        readZipEntries(intJar, Collections.singletonMap("mappings/mappings.tiny", reader -> parseTinyMap(mappings, reader)));
 
-        //download srg
-        URL srgURL = new URL(String.format("https://files.minecraftforge.net/maven/de/oceanlabs/mcp/mcp_config/%s/mcp_config-%s.zip", mcVersion, mcVersion));
-        String tsrg = readZipContentFromURL(srgURL, "config/joined.tsrg").get("config/joined.tsrg");
-        MCPData mcpData = addTSRGData(mappings, tsrg);
+        //srg
+        MCPData mcpData = new MCPData();
+        readZipEntries(srgZip, Collections.singletonMap("config/joined.tsrg", reader -> addTSRGData(mappings, mcpData, reader)));
 
-        if (!FMLLoader.isProduction()) {
-            //download mcp
-            URL mcpURL = new URL(String.format("https://files.minecraftforge.net/maven/de/oceanlabs/mcp/mcp_%s/%s/mcp_%s-%s.zip", channel, version, channel, version));
-            Map<String, String> mcpfiles = readZipContentFromURL(mcpURL, "fields.csv", "methods.csv");
-            addMCPData(mcpData, mcpfiles.get("fields.csv"), mcpfiles.get("methods.csv"));
+        if (mcpZip != null) {
+            //mcp
+            Map<String, EntryReader> readers = new HashMap<>();
+            readers.put("fields.csv", reader -> addMCPData(mcpData.fields, reader));
+            readers.put("methods.csv", reader -> addMCPData(mcpData.methods, reader));
+            readZipEntries(mcpZip, readers);
         }
 
-        StringBuilder builder = new StringBuilder("tiny\t2\t0\tintermediary\tnamed");
-        for (ClassData clazz : mappings.values()) {
-            builder.append("\n").append(clazz.getIntToMCP());
-        }
+        DescriptorRemapper intRemapper = new DescriptorRemapper(name -> {
+            ClassData clazz = mappings.get(name);
+            return clazz != null ? clazz.intermediary : null;
+        });
+        // String.valueOf keeps missing names identical to what the text file contains
+        DescriptorRemapper mcpRemapper = new DescriptorRemapper(name -> {
+            ClassData clazz = mappings.get(name);
+            return clazz != null ? String.valueOf(clazz.mcpName) : null;
+        });
 
-        File outputFolder = cacheDir.toFile();
-        if (!outputFolder.exists() && !outputFolder.mkdirs())
-            throw new RuntimeException("Failed to create dir for volderyarn mappings.");
+        // classes are independent, serialize them in parallel chunks and write each chunk once all before it are
+        ClassData[] classes = mappings.values().toArray(new ClassData[0]);
+        ForkJoinPool pool = new ForkJoinPool();
+        // bounds the serialized output held in memory
+        int maxChunksInFlight = pool.getParallelism() * 2;
 
-        for (File f : outputFolder.listFiles()) {
-            if (!f.isDirectory()) f.delete();
-        }
+        try (Writer output = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+            output.write("tiny\t2\t0\tintermediary\tnamed");
+            Queue<Future<String>> chunks = new ArrayDeque<>();
+            int next = 0;
 
-        File outputFile = new File(outputFolder, String.format(VOLDERYARN, mcVersion, channel, version));
-        if (!outputFile.getParentFile().exists()) {
-            if (!outputFile.getParentFile().mkdir())
-                throw new FileNotFoundException("Failed to create folder for volderyarn!");
+            while (next < classes.length || !chunks.isEmpty()) {
+                while (next < classes.length && chunks.size() < maxChunksInFlight) {
+                    int start = next;
+                    int end = Math.min(start + CHUNK_SIZE, classes.length);
+                    chunks.add(pool.submit(() -> generateChunk(classes, start, end, intRemapper, mcpRemapper)));
+                    next = end;
+                }
+
+                output.write(chunks.remove().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to generate mappings", e);
+        } finally {
+            pool.shutdownNow();
         }
 
-        try (FileOutputStream output = new FileOutputStream(outputFile)) {
-            byte[] outData = builder.toString().getBytes(StandardCharsets.UTF_8);
-            output.write(outData, 0, outData.length);
+        // binary copy of the same data, mapped on later launches instead of parsing the text file
+        BinaryTinyTree.Writer snapshot = new BinaryTinyTree.Writer(Arrays.asList("intermediary", "named"));
+
+        for (ClassData clazz : classes) {
+            clazz.addToSnapshot(snapshot);
         }
+
+        snapshot.write(snapshotFile, outputFile);
     }
 
-    private static Map<String, ClassData> parseTinyMap(String map) {
-        Map<String, ClassData> mappings = new LinkedHashMap<>();
+    private static void parseTinyMap(Map<String, ClassData> mappings, BufferedReader reader) throws IOException {
         ClassData clazzdata = null;
-        for (String line : map.split("\n")) {
+        String line;
+        while ((line = reader.readLine()) != null) {
             String[] parts = line.trim().split("\t");
             switch (parts[0]) {
                 case "c":
-                    mappings.put(parts[1], clazzdata = new ClassData(mappings, parts[1], parts[2]));
+                    mappings.put(parts[1], clazzdata = new ClassData(parts[1], parts[2]));
                     break;
                 case "m":
                     assert clazzdata != null;
@@ -79,74 +109,86 @@ public class CreateVolderYarn {
                 default:
             }
         }
-        return mappings;
     }
 
-    private static MCPData addTSRGData(Map<String, ClassData> mappings, String tsrg) {
-        MCPData mcpData = new MCPData();
-        String[] classes = String.join("\t", tsrg.split("\n\t")).split("\n");
-        for (String c : classes) {
-            String[] lines = c.split("\t");
-            String[] classData = lines[0].split("\\s+");
-            ClassData clazz = mappings.get(classData[0]);
+    private static void addTSRGData(Map<String, ClassData> mappings, MCPData mcpData, BufferedReader reader) throws IOException {
+        ClassData clazz = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            //class
+            if (line.charAt(0) != '\t') {
+                String[] classData = line.split("\\s+");
+                clazz = mappings.get(classData[0]);
+                if (clazz != null) clazz.mcpName = classData[1];
+                continue;
+            }
             if (clazz == null) continue;
-            clazz.mcpName = classData[1];
-            for (int i = 1; i < lines.length; ++i) {
-                String[] lineData = lines[i].split("\\s+");
-                //method
-                if (lineData.length == 3) {
-                    if (!mcpData.methods.containsKey(lineData[2])) mcpData.methods.put(lineData[2], new LinkedList<>());
-                    MethodData d = clazz.methods.get(lineData[0] + lineData[1]);
-                    if (d == null) continue;
-                    d.mcpName = lineData[2];
-                    mcpData.methods.get(lineData[2]).add(d);
-                    //field
-                } else {
-                    if (!mcpData.fields.containsKey(lineData[1])) mcpData.fields.put(lineData[1], new LinkedList<>());
-                    FieldData d = clazz.fields.get(lineData[0]);
-                    if (d == null) continue;
-                    d.mcpName = lineData[1];
-                    mcpData.fields.get(lineData[1]).add(d);
-                }
+            String[] lineData = line.trim().split("\\s+");
+            //method
+            if (lineData.length == 3) {
+                List<MethodData> named = mcpData.methods.computeIfAbsent(lineData[2], k -> new LinkedList<>());
+                MethodData d = clazz.methods.get(lineData[0] + lineData[1]);
+                if (d == null) continue;
+                d.mcpName = lineData[2];
+                named.add(d);
+                //field
+            } else {
+                List<FieldData> named = mcpData.fields.computeIfAbsent(lineData[1], k -> new LinkedList<>());
+                FieldData d = clazz.fields.get(lineData[0]);
+                if (d == null) continue;
+                d.mcpName = lineData[1];
+                named.add(d);
             }
         }
-        return mcpData;
     }
 
-    private static void addMCPData(MCPData mcpData, String fields, String methods) {
-        for (String field : fields.split("\n")) {
-            String[] fieldData = field.split(",");
-            mcpData.fields.getOrDefault(fieldData[0].trim(), new LinkedList<>()).forEach(f -> f.mcpName = fieldData[1].trim());
-        }
-
-        for (String method : methods.split("\n")) {
-            String[] methodData = method.split(",");
-            mcpData.methods.getOrDefault(methodData[0].trim(), new LinkedList<>()).forEach(m -> m.mcpName = methodData[1].trim());
+    private static void addMCPData(Map<String, ? extends List<? extends MemberData>> members, BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] data = line.split(",");
+            List<? extends MemberData> named = members.get(data[0].trim());
+            if (named == null) continue;
+            for (MemberData member : named) {
+                member.mcpName = data[1].trim();
+            }
         }
     }
 
-    private static Map<String, String> readZipContentFromURL(URL remote, String... files) throws IOException {
-        try (ZipInputStream is = new ZipInputStream(new BufferedInputStream(remote.openStream(), 1024))) {
-            byte[] buff = new byte[1024];
+    /**
+     * Streams the requested entries of a zip as UTF-8 text, nothing else is decompressed into memory.
+     */
+    private static void readZipEntries(Path zip, Map<String, EntryReader> readers) throws IOException {
+        Set<String> remaining = new HashSet<>(readers.keySet());
+        try (ZipInputStream is = new ZipInputStream(new BufferedInputStream(Files.newInputStream(zip)))) {
             ZipEntry entry;
-            Set<String> fileList = new HashSet<>(Arrays.asList(files));
-            Map<String, String> fileContents = new HashMap<>();
-            while ((entry = is.getNextEntry()) != null) {
-                if (fileList.contains(entry.getName())) {
-                    StringBuilder builder = new StringBuilder();
-                    int read;
-                    while ((read = is.read(buff, 0, 1024)) > 0) {
-                        builder.append(new String(buff, 0, read));
-                    }
-                    fileContents.put(entry.getName(), builder.toString());
-                }
+            while (!remaining.isEmpty() && (entry = is.getNextEntry()) != null) {
+                EntryReader reader = readers.get(entry.getName());
+                if (reader == null || !remaining.remove(entry.getName())) continue;
+                // not closed, that would close the zip stream
+                reader.read(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
             }
-            return fileContents;
+        }
+        if (!remaining.isEmpty()) {
+            throw new FileNotFoundException("Missing " + remaining + " in " + zip);
         }
     }
 
+    private static String generateChunk(ClassData[] classes, int start, int end, DescriptorRemapper intRemapper, DescriptorRemapper mcpRemapper) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            classes[i].resolveDescriptors(intRemapper, mcpRemapper);
+            sb.append('\n');
+            classes[i].writeIntToMCP(sb);
+        }
+        return sb.toString();
+    }
+
+    private interface EntryReader {
+        void read(BufferedReader reader) throws IOException;
+    }
+
     private static class ClassData {
-        final Map<String, ClassData> classMap;
         final String obf;
         final String intermediary;
         String mcpName;
@@ -154,84 +196,79 @@ public class CreateVolderYarn {
         final Map<String, MethodData> methods = new LinkedHashMap<>();
         final Map<String, FieldData> fields = new LinkedHashMap<>();
 
-        public ClassData(Map<String, ClassData> classMap, String obf, String intermediary) {
-            this.classMap = classMap;
+        public ClassData(String obf, String intermediary) {
             this.obf = obf;
             this.intermediary = intermediary;
         }
 
         public void addMethod(String obf, String obfSig, String intermediary) {
-            methods.put(obf + obfSig, new MethodData(classMap, obf, obfSig, intermediary));
+            methods.put(obf + obfSig, new MethodData(obf, obfSig, intermediary));
         }
 
         public void addField(String obf, String obfSig, String intermediary) {
-            fields.put(obf, new FieldData(classMap, obf, obfSig, intermediary));
+            fields.put(obf, new FieldData(obf, obfSig, intermediary));
         }
 
-        public String getIntToMCP() {
-            StringBuilder builder = new StringBuilder("c\t").append(intermediary).append("\t").append(mcpName);
+        public void resolveDescriptors(DescriptorRemapper intRemapper, DescriptorRemapper mcpRemapper) {
             for (MethodData method : methods.values()) {
-                builder.append("\n\tm\t").append(method.getIntermediarySig()).append("\t").append(method.intermediary).append("\t").append(method.mcpName);
+                method.resolveDescriptors(intRemapper, mcpRemapper);
             }
             for (FieldData field : fields.values()) {
-                builder.append("\n\tf\t").append(field.getIntermediarySig()).append("\t").append(field.intermediary).append("\t").append(field.mcpName);
+                field.resolveDescriptors(intRemapper, mcpRemapper);
             }
-            return builder.toString();
         }
-    }
 
-    private static class MethodData {
-        final Map<String, ClassData> classMap;
-        final String obf;
-        final String intermediary;
-        String mcpName;
-
-        final String obfSig;
-
-        public MethodData(Map<String, ClassData> classMap, String obf, String obfSig, String intermediary) {
-            this.classMap = classMap;
-            this.obf = obf;
-            this.obfSig = obfSig;
-            this.intermediary = intermediary;
+        public void writeIntToMCP(StringBuilder out) {
+            out.append("c\t").append(intermediary).append("\t").append(mcpName);
+            for (MethodData method : methods.values()) {
+                out.append("\n\tm\t").append(method.intermediarySig).append("\t").append(method.intermediary).append("\t").append(method.mcpName);
+            }
+            for (FieldData field : fields.values()) {
+                out.append("\n\tf\t").append(field.intermediarySig).append("\t").append(field.intermediary).append("\t").append(field.mcpName);
+            }
         }
 
-        public String getIntermediarySig() {
-            int offset = 0;
-            Matcher m = Pattern.compile("L(.+?);").matcher(obfSig);
-            String intSig = obfSig;
-            while (m.find()) {
-                if (!classMap.containsKey(m.group(1))) continue;
-                String intName = classMap.get(m.group(1)).intermediary;
-                intSig = intSig.substring(0, m.start(1) + offset) + intName + intSig.substring(m.end(1) + offset);
-                offset += intName.length() - m.group(1).length();
+        public void addToSnapshot(BinaryTinyTree.Writer writer) {
+            writer.addClass(intermediary, String.valueOf(mcpName));
+            for (FieldData field : fields.values()) {
+                writer.addField(new String[] {field.intermediary, String.valueOf(field.mcpName)}, new String[] {field.intermediarySig, field.mcpSig});
+            }
+            for (MethodData method : methods.values()) {
+                writer.addMethod(new String[] {method.intermediary, String.valueOf(method.mcpName)}, new String[] {method.intermediarySig, method.mcpSig});
             }
-            return intSig;
         }
     }
 
-    private static class FieldData {
-        final Map<String, ClassData> classMap;
+    private static abstract class MemberData {
         final String obf;
         final String intermediary;
         String mcpName;
 
         final String obfSig;
+        String intermediarySig;
+        String mcpSig;
 
-        public FieldData(Map<String, ClassData> classMap, String obf, String obfSig, String intermediary) {
-            this.classMap = classMap;
+        MemberData(String obf, String obfSig, String intermediary) {
             this.obf = obf;
             this.obfSig = obfSig;
             this.intermediary = intermediary;
         }
 
-        public String getIntermediarySig() {
-            Matcher m = Pattern.compile("(\\[*)L(.+?);").matcher(obfSig);
-            if (m.find()) {
-                if (!classMap.containsKey(m.group(2))) return obfSig;
-                return m.group(1) + "L" + classMap.get(m.group(2)).intermediary + ";";
-            } else {
-                return obfSig;
-            }
+        void resolveDescriptors(DescriptorRemapper intRemapper, DescriptorRemapper mcpRemapper) {
+            intermediarySig = intRemapper.remap(obfSig);
+            mcpSig = mcpRemapper.remap(obfSig);
+        }
+    }
+
+    private static class MethodData extends MemberData {
+        public MethodData(String obf, String obfSig, String intermediary) {
+            super(obf, obfSig, intermediary);
+        }
+    }
+
+    private static class FieldData extends MemberData {
+        public FieldData(String obf, String obfSig, String intermediary) {
+            super(obf, obfSig, intermediary);
         }
     }
 
@@ -4,23 +4,23 @@ import cpw.mods.modlauncher.TransformingClassLoader;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.api.metadata.ModMetadata;
+import net.fabricmc.loader.impl.discovery.ClasspathHierarchy;
 import net.fabricmc.loader.impl.metadata.BuiltinModMetadata;
 import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
 import net.fabricmc.loader.impl.util.UrlUtil;
 import net.fabricmc.loader.impl.util.log.Log;
 import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.mappings.InheritedMemberTables;
+import net.fabricmc.loader.impl.util.mappings.MappingIndex;
 import net.fabricmc.loader.impl.util.mappings.MixinIntermediaryDevRemapper;
-import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.minecraftforge.fml.loading.FMLLoader;
-import org.apache.commons.io.IOUtils;
 import org.spongepowered.asm.mixin.MixinEnvironment;
 import org.spongepowered.asm.mixin.Mixins;
 import org.spongepowered.asm.mixin.connect.IMixinConnector;
 import xyz.wagyourtail.fabriconforge.loader.FabricLoaderImpl;
+import xyz.wagyourtail.fabriconforge.loader.MappingConfiguration;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -52,26 +52,27 @@ public class FabricLoaderEarlyRiser implements IMixinConnector {
         addURL = addURL1;
     }
 
+    private static MixinIntermediaryDevRemapper mixinRemapper;
+
+    public static MixinIntermediaryDevRemapper getMixinRemapper() {
+        return mixinRemapper;
+    }
+
     public static TinyTree getMappings() {
-        try {
-            Path cacheDr = FabricLoaderImpl.INSTANCE.getGameDir().resolve(FabricLoaderImpl.CACHE_DIR_NAME);
-            Field mcVersionGetter = FMLLoader.class.getDeclaredField("mcVersion");
-            mcVersionGetter.setAccessible(true);
-            String mcVersion = (String) mcVersionGetter.get(null);
-            Path mappingFile = cacheDr.resolve(String.format(CreateVolderYarn.VOLDERYARN, mcVersion, "snapshot", "20201028-1.16.3"));
-            if (!mappingFile.toFile().exists()) {
-                CreateVolderYarn.genMappings(cacheDr, mcVersion, "snapshot", "20201028-1.16.3");
-            }
+        return FabricLoaderImpl.INSTANCE.getMappingConfiguration().getMappings();
+    }
 
-            return TinyMappingFactory.load(IOUtils.toBufferedReader(new FileReader(mappingFile.toFile())));
+    public static void addToClassPath(Path path) {
+        try {
+            addToClassPath(UrlUtil.asUrl(path));
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
     }
 
-    public static void addToClassPath(Path path) {
+    public static void addToClassPath(URL url) {
         try {
-            addURL.invoke(classLoader, UrlUtil.asUrl(path));
+            addURL.invoke(classLoader, url);
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
@@ -82,7 +83,8 @@ public class FabricLoaderEarlyRiser implements IMixinConnector {
         try {
             FabricLoaderImpl.INSTANCE.load();
 //            TODO: figure out why this one didn't work
-            TinyTree mappings = getMappings();
+            MappingConfiguration mappingConfiguration = FabricLoaderImpl.INSTANCE.getMappingConfiguration();
+            TinyTree mappings = mappingConfiguration.getMappings();
             if (mappings != null) {
                 List<String> namespaces = mappings.getMetadata().getNamespaces();
 
@@ -91,8 +93,11 @@ public class FabricLoaderEarlyRiser implements IMixinConnector {
                     System.setProperty("mixin.env.remapRefMap", "true");
 
                     try {
-                        MixinIntermediaryDevRemapper remapper = new MixinIntermediaryDevRemapper(mappings, "intermediary", "named");
+                        MappingIndex index = mappingConfiguration.getIndex("intermediary", "named");
+                        MixinIntermediaryDevRemapper remapper = new MixinIntermediaryDevRemapper(index, buildInheritedMemberTables(index));
+                        mappingConfiguration.retain("intermediary", "named");
                         MixinEnvironment.getDefaultEnvironment().getRemappers().add(remapper);
+                        mixinRemapper = remapper;
                         Log.info(LogCategory.MIXIN, "Loaded Fabric development mappings for mixin remapper!");
                     } catch (Exception e) {
                         Log.error(LogCategory.MIXIN, "Fabric development environment setup error - the game will probably crash soon!");
@@ -108,6 +113,16 @@ public class FabricLoaderEarlyRiser implements IMixinConnector {
         }
     }
 
+    private static InheritedMemberTables buildInheritedMemberTables(MappingIndex index) {
+        try (ClasspathHierarchy hierarchy = ClasspathHierarchy.open(FabricLoaderImpl.INSTANCE.getGameDir().resolve(FabricLoaderImpl.CACHE_DIR_NAME))) {
+            return InheritedMemberTables.build(index, hierarchy);
+        } catch (IOException | RuntimeException e) {
+            // the tables only speed lookups up, e.g. a non-URL system class loader must not cost the remapper
+            Log.warn(LogCategory.MIXIN, "Failed to build inherited member tables, mixin remapping falls back to class info lookups", e);
+            return null;
+        }
+    }
+
     static Set<String> getMixinConfigs(FabricLoaderImpl loader, EnvType type) {
         return loader.getAllMods().stream()
             .map(ModContainer::getMetadata)
@@ -41,6 +41,10 @@ public class FabricOnForge {
     public void setup(final FMLCommonSetupEvent event) {
         LOGGER.log(Level.INFO, "starting fabric mods");
         FabricLoaderImpl.INSTANCE.getEntrypoints("main", ModInitializer.class).forEach(ModInitializer::onInitialize);
+
+        if (FabricLoaderEarlyRiser.getMixinRemapper() != null) {
+            FabricLoaderEarlyRiser.getMixinRemapper().logHierarchyCacheStats();
+        }
     }
 
     public void doClientStuff(final FMLClientSetupEvent event) {
@@ -0,0 +1,246 @@
+package xyz.wagyourtail.fabriconforge;
+
+import net.fabricmc.loader.impl.util.HashUtil;
+import net.fabricmc.loader.impl.util.SystemProperties;
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.minecraftforge.fml.loading.FMLLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Generated volderyarn mappings in {@code .fabric/mappings}, one folder per key of the generator inputs.
+ *
+ * <p>The key covers the MC version, MCP channel and version, the coordinates of the input artifacts and whether this
+ * is a production launch, so switching between versions reuses earlier output and a cached entry is found without
+ * resolving or reading any artifact. The checksums of the artifacts are recorded in the entry when it's generated and
+ * are part of its fingerprint. Folders are evicted least recently used first once they exceed
+ * {@link SystemProperties#MAPPINGS_CACHE_SIZE} megabytes.
+ */
+public class MappingCache {
+    public static final String MAPPINGS_DIR_NAME = "mappings";
+    private static final String INPUTS_FILE_NAME = "inputs.tsv";
+    private static final int KEY_LENGTH = 20;
+    private static final int GENERATOR_VERSION = 1; // bump when the generated output changes for the same inputs
+    private static final long DEFAULT_MAX_SIZE = 256;
+
+    private final Path fabricCacheDir;
+    private final Path cacheDir;
+    private final long maxSize;
+
+    public MappingCache(Path fabricCacheDir) {
+        this.fabricCacheDir = fabricCacheDir;
+        this.cacheDir = fabricCacheDir.resolve(MAPPINGS_DIR_NAME);
+        this.maxSize = Long.getLong(SystemProperties.MAPPINGS_CACHE_SIZE, DEFAULT_MAX_SIZE) * 1024 * 1024;
+    }
+
+    /**
+     * Returns the cache entry for the given versions, generating it if no entry with the same key exists.
+     */
+    public Entry get(String mcVersion, String channel, String version) throws IOException {
+        boolean production = FMLLoader.isProduction();
+        ArtifactResolver.Artifact intermediary = new ArtifactResolver.Artifact(ArtifactResolver.FABRIC_MAVEN, "net.fabricmc", "intermediary", mcVersion, "v2", "jar");
+        ArtifactResolver.Artifact mcpConfig = new ArtifactResolver.Artifact(ArtifactResolver.FORGE_MAVEN, "de.oceanlabs.mcp", "mcp_config", mcVersion, null, "zip");
+        ArtifactResolver.Artifact mcp = production ? null : new ArtifactResolver.Artifact(ArtifactResolver.FORGE_MAVEN, "de.oceanlabs.mcp", "mcp_" + channel, version, null, "zip");
+
+        String key = getKey(mcVersion, channel, version, production, intermediary, mcpConfig, mcp);
+        Path dir = cacheDir.resolve(key);
+        Path inputsFile = dir.resolve(INPUTS_FILE_NAME);
+
+        if (Files.isRegularFile(inputsFile) && Files.isRegularFile(dir.resolve(getMappingFileName(mcVersion, channel, version)))) {
+            Log.debug(LogCategory.MAPPINGS, "Using cached mappings %s", dir);
+        } else {
+            Log.info(LogCategory.MAPPINGS, "Generating mappings for %s %s %s", mcVersion, channel, version);
+            // entries only appear complete, anything else was modified externally
+            deleteRecursively(dir);
+            ArtifactResolver resolver = new ArtifactResolver(fabricCacheDir);
+            Map<ArtifactResolver.Artifact, Path> inputs = new LinkedHashMap<>();
+            Path intJar = resolver.resolve(intermediary);
+            inputs.put(intermediary, intJar);
+            Path srgZip = resolver.resolve(mcpConfig);
+            inputs.put(mcpConfig, srgZip);
+            Path mcpZip = null;
+
+            if (mcp != null) {
+                mcpZip = resolver.resolve(mcp);
+                inputs.put(mcp, mcpZip);
+            }
+
+            Files.createDirectories(cacheDir);
+            Path tmp = Files.createTempDirectory(cacheDir, key + "-");
+
+            try {
+                CreateVolderYarn.genMappings(intJar, srgZip, mcpZip, tmp.resolve(getMappingFileName(mcVersion, channel, version)), tmp.resolve(getSnapshotFileName(mcVersion, channel, version)));
+                writeInputs(tmp.resolve(INPUTS_FILE_NAME), inputs);
+
+                // only complete entries ever get the key name
+                Files.move(tmp, dir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // another instance sharing the game dir generated the same entry first
+                Log.debug(LogCategory.MAPPINGS, "Mappings %s were generated concurrently", dir);
+            } finally {
+                deleteRecursively(tmp);
+            }
+        }
+
+        Entry entry = new Entry(dir, getFingerprint(key, inputsFile), mcVersion, channel, version);
+        Files.setLastModifiedTime(entry.dir, FileTime.fromMillis(System.currentTimeMillis()));
+
+        try {
+            prune(entry.dir);
+        } catch (IOException e) {
+            Log.warn(LogCategory.MAPPINGS, "Failed to prune mapping cache %s", cacheDir, e);
+        }
+
+        return entry;
+    }
+
+    private void prune(Path current) throws IOException {
+        // mappings of older versions were written straight into .fabric
+        try (DirectoryStream<Path> legacy = Files.newDirectoryStream(fabricCacheDir, "volderyarn-*.{tiny,bin}")) {
+            for (Path path : legacy) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        List<Path> entries = new ArrayList<>();
+        long totalSize = 0;
+
+        // skips the temporary directories of other instances still generating mappings
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(cacheDir, path -> isKey(path.getFileName().toString()) && Files.isDirectory(path))) {
+            for (Path dir : dirs) {
+                entries.add(dir);
+                totalSize += size(dir);
+            }
+        }
+
+        if (totalSize <= maxSize) return;
+
+        entries.sort(Comparator.comparing(MappingCache::getLastModifiedTime));
+
+        for (Path dir : entries) {
+            if (totalSize <= maxSize) break;
+            if (dir.equals(current)) continue;
+
+            long size = size(dir);
+            Log.debug(LogCategory.MAPPINGS, "Evicting cached mappings %s", dir);
+            deleteRecursively(dir);
+            totalSize -= size;
+        }
+    }
+
+    private static boolean isKey(String name) {
+        if (name.length() != KEY_LENGTH) return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+
+        return true;
+    }
+
+    private static String getKey(String mcVersion, String channel, String version, boolean production, ArtifactResolver.Artifact... artifacts) {
+        MessageDigest digest = HashUtil.newDigest();
+        HashUtil.update(digest, Integer.toString(GENERATOR_VERSION));
+        HashUtil.update(digest, mcVersion);
+        HashUtil.update(digest, channel);
+        HashUtil.update(digest, version);
+        HashUtil.update(digest, Boolean.toString(production));
+
+        for (ArtifactResolver.Artifact artifact : artifacts) {
+            if (artifact == null) continue;
+
+            HashUtil.update(digest, artifact.toString());
+        }
+
+        return HashUtil.toHex(digest.digest()).substring(0, KEY_LENGTH);
+    }
+
+    /**
+     * Records the checksum of every input artifact, one per line as coordinates and SHA-256 separated by a tab.
+     */
+    private static void writeInputs(Path file, Map<ArtifactResolver.Artifact, Path> inputs) throws IOException {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<ArtifactResolver.Artifact, Path> input : inputs.entrySet()) {
+            sb.append(input.getKey()).append('\t').append(HashUtil.hash(input.getValue())).append('\n');
+        }
+
+        Files.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String getFingerprint(String key, Path inputsFile) throws IOException {
+        MessageDigest digest = HashUtil.newDigest();
+        HashUtil.update(digest, key);
+        digest.update(Files.readAllBytes(inputsFile));
+
+        return HashUtil.toHex(digest.digest()).substring(0, 20);
+    }
+
+    private static String getMappingFileName(String mcVersion, String channel, String version) {
+        return String.format(CreateVolderYarn.VOLDERYARN, mcVersion, channel, version);
+    }
+
+    private static String getSnapshotFileName(String mcVersion, String channel, String version) {
+        return String.format(CreateVolderYarn.VOLDERYARN_SNAPSHOT, mcVersion, channel, version);
+    }
+
+    private static FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) throw exc;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public static class Entry {
+        public final Path dir;
+        public final String fingerprint;
+        public final Path mappingFile;
+        public final Path snapshotFile;
+
+        Entry(Path dir, String fingerprint, String mcVersion, String channel, String version) {
+            this.dir = dir;
+            this.fingerprint = fingerprint;
+            this.mappingFile = dir.resolve(getMappingFileName(mcVersion, channel, version));
+            this.snapshotFile = dir.resolve(getSnapshotFileName(mcVersion, channel, version));
+        }
+    }
+}
@@ -14,6 +14,7 @@ import net.fabricmc.loader.impl.discovery.*;
 import net.fabricmc.loader.impl.metadata.DependencyOverrides;
 import net.fabricmc.loader.impl.metadata.EntrypointMetadata;
 import net.fabricmc.loader.impl.metadata.LoaderModMetadata;
+import net.fabricmc.loader.impl.transformer.AccessWidenerIndex;
 import net.fabricmc.loader.impl.util.DefaultLanguageAdapter;
 import net.fabricmc.loader.impl.util.SystemProperties;
 import net.fabricmc.loader.impl.util.log.Log;
@@ -22,9 +23,11 @@ import net.minecraftforge.fml.loading.FMLLoader;
 import xyz.wagyourtail.fabriconforge.loader.entrypoint.EntrypointStorage;
 import xyz.wagyourtail.fabriconforge.FabricLoaderEarlyRiser;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -33,6 +36,7 @@ import java.util.stream.Collectors;
 
 public class FabricLoaderImpl extends FabricLoader {
     public static final FabricLoaderImpl INSTANCE = new FabricLoaderImpl();
+    public static final String VERSION = getLoaderVersion(); // invalidates remapped mods
     public static final String CACHE_DIR_NAME = ".fabric";
     public static final String PROCESSED_MODS_DIR_NAME = "processedMods";
     public static final String REMAPPED_JARS_DIR_NAME = "remappedJars";
@@ -40,6 +44,8 @@ public class FabricLoaderImpl extends FabricLoader {
 
     private final Map<String, LanguageAdapter> adapterMap = new HashMap<>();
     private final EntrypointStorage entrypointStorage = new EntrypointStorage();
+    private final MappingConfiguration mappingConfiguration = new MappingConfiguration();
+    private final AccessWidenerIndex accessWidener = new AccessWidenerIndex();
 
     protected final Map<String, ModContainerImpl> modMap = new HashMap<>();
     protected List<ModContainerImpl> mods = new ArrayList<>();
@@ -48,12 +54,26 @@ public class FabricLoaderImpl extends FabricLoader {
     private Object gameInstance;
     private MappingResolver mappingResolver;
 
+    /**
+     * The version of this mod as templated into its mods.toml by the build.
+     */
+    private static String getLoaderVersion() {
+        try {
+            return FMLLoader.getLoadingModList().getModFileById("fabric-on-forge").getMods().get(0).getVersion().toString();
+        } catch (Throwable t) {
+            // an unknown version must not match any earlier one
+            Log.warn(LogCategory.GENERAL, "Could not determine the loader version, remapping all mods", t);
+            return "unknown-" + UUID.randomUUID();
+        }
+    }
+
     public void freeze() {
         if (frozen) {
             throw new IllegalStateException("Already frozen!");
         }
         frozen = true;
         finishModLoading();
+        mappingConfiguration.release();
     }
 
     public void load() {
@@ -87,7 +107,7 @@ public class FabricLoaderImpl extends FabricLoader {
         Path outputdir = cacheDir.resolve(PROCESSED_MODS_DIR_NAME);
 
         // mod remapping
-        RuntimeModRemapper.remap(mods, cacheDir.resolve(TMP_DIR_NAME), outputdir);
+        RuntimeModRemapper.remap(mods, cacheDir, cacheDir.resolve(TMP_DIR_NAME), outputdir);
 
         String modsToLoadLate = System.getProperty(SystemProperties.DEBUG_LOAD_LATE);
         if (modsToLoadLate != null) {
@@ -168,6 +188,7 @@ public class FabricLoaderImpl extends FabricLoader {
         postprocessModMetadata();
         setupLanguageAdapters();
         setupMods();
+        loadAccessWideners();
     }
 
     protected void postprocessModMetadata() {
@@ -220,6 +241,29 @@ public class FabricLoaderImpl extends FabricLoader {
         }
     }
 
+    private void loadAccessWideners() {
+        for (ModContainerImpl mod : mods) {
+            String path = mod.getInfo().getAccessWidener();
+            if (path == null) continue;
+
+            try (BufferedReader reader = Files.newBufferedReader(mod.getRootPath().resolve(path), StandardCharsets.UTF_8)) {
+                accessWidener.read(reader, "named");
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to read accessWidener file from mod " + mod.getInfo().getId(), e);
+            }
+        }
+
+        Log.debug(LogCategory.GENERAL, "Loaded access wideners for %d classes", accessWidener.getTargets().size());
+    }
+
+    public AccessWidenerIndex getAccessWidener() {
+        return accessWidener;
+    }
+
+    public MappingConfiguration getMappingConfiguration() {
+        return mappingConfiguration;
+    }
+
     public void setGameInstance(Object instance) {
         this.gameInstance = instance;
     }
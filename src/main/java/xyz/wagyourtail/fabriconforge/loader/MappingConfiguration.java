@@ -0,0 +1,120 @@
+package xyz.wagyourtail.fabriconforge.loader;
+
+import net.fabricmc.loader.impl.util.log.Log;
+import net.fabricmc.loader.impl.util.log.LogCategory;
+import net.fabricmc.loader.impl.util.mappings.BinaryTinyTree;
+import net.fabricmc.loader.impl.util.mappings.MappingIndex;
+import net.fabricmc.loader.impl.util.mappings.SymbolTable;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
+import net.minecraftforge.fml.loading.FMLLoader;
+import xyz.wagyourtail.fabriconforge.MappingCache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Loads the volderyarn mappings once and hands out shared {@link MappingIndex} views per namespace pair.
+ *
+ * <p>Everything is dropped again on {@link #release()} except the indices a runtime consumer asked to keep with
+ * {@link #retain(String, String)}, later calls load the mappings again.
+ */
+public final class MappingConfiguration {
+    private static final String MCP_CHANNEL = "snapshot";
+    private static final String MCP_VERSION = "20201028-1.16.3";
+
+    private TinyTree mappings;
+    private String fingerprint;
+    private final Map<String, MappingIndex> indices = new HashMap<>();
+    private final Set<String> retained = new HashSet<>();
+
+    public synchronized TinyTree getMappings() {
+        if (mappings == null) {
+            long startTime = System.nanoTime();
+            mappings = loadMappings();
+            Log.debug(LogCategory.MAPPINGS, "Loading mappings took %.1f ms", (System.nanoTime() - startTime) * 1e-6);
+
+            if (mappings instanceof BinaryTinyTree) {
+                SymbolTable symbols = ((BinaryTinyTree) mappings).getSymbols();
+                Log.debug(LogCategory.MAPPINGS, "Mappings hold %d classes and %d symbols in %d KiB",
+                        mappings.getClasses().size(), symbols.size(), symbols.getDataSize() / 1024);
+            }
+        }
+
+        return mappings;
+    }
+
+    /**
+     * Fingerprint of the inputs the mappings were generated from, changes whenever the mappings may have changed.
+     */
+    public synchronized String getFingerprint() {
+        if (fingerprint == null) getMappings();
+
+        return fingerprint;
+    }
+
+    public synchronized MappingIndex getIndex(String from, String to) {
+        return indices.computeIfAbsent(getKey(from, to), k -> new MappingIndex(getMappings(), from, to));
+    }
+
+    /**
+     * Keeps the index for the given namespaces alive past {@link #release()}.
+     */
+    public synchronized void retain(String from, String to) {
+        retained.add(getKey(from, to));
+    }
+
+    public synchronized void release() {
+        indices.keySet().retainAll(retained);
+
+        if (indices.isEmpty()) {
+            mappings = null;
+        }
+    }
+
+    private static String getKey(String from, String to) {
+        return from + "->" + to;
+    }
+
+    private TinyTree loadMappings() {
+        try {
+            Path cacheDr = FabricLoaderImpl.INSTANCE.getGameDir().resolve(FabricLoaderImpl.CACHE_DIR_NAME);
+            Field mcVersionGetter = FMLLoader.class.getDeclaredField("mcVersion");
+            mcVersionGetter.setAccessible(true);
+            String mcVersion = (String) mcVersionGetter.get(null);
+            MappingCache.Entry entry = new MappingCache(cacheDr).get(mcVersion, MCP_CHANNEL, MCP_VERSION);
+            fingerprint = entry.fingerprint;
+            Path mappingFile = entry.mappingFile;
+            Path snapshotFile = entry.snapshotFile;
+
+            try {
+                TinyTree snapshot = BinaryTinyTree.open(snapshotFile, mappingFile);
+                if (snapshot != null) return snapshot;
+            } catch (IOException e) {
+                Log.warn(LogCategory.MAPPINGS, "Failed to read mapping snapshot %s, falling back to %s", snapshotFile, mappingFile, e);
+            }
+
+            TinyTree mappings;
+            try (BufferedReader reader = Files.newBufferedReader(mappingFile)) {
+                mappings = TinyMappingFactory.load(reader);
+            }
+
+            // snapshot is missing or stale, rewrite it and use it right away so all consumers share its interned symbols
+            try {
+                BinaryTinyTree.write(mappings, snapshotFile, mappingFile);
+                TinyTree snapshot = BinaryTinyTree.open(snapshotFile, mappingFile);
+                if (snapshot != null) return snapshot;
+            } catch (IOException e) {
+                Log.warn(LogCategory.MAPPINGS, "Failed to write mapping snapshot %s", snapshotFile, e);
+            }
+
+            return mappings;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -51,12 +51,14 @@ import org.spongepowered.asm.mixin.transformer.ext.extensions.ExtensionClassExpo
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
 import net.fabricmc.loader.api.metadata.CustomValue;
+import net.fabricmc.loader.impl.transformer.AccessWidenerIndex;
 
 import com.chocohead.mm.EnumSubclasser.StructClass;
 import com.chocohead.mm.api.ClassTinkerers;
 import com.chocohead.mm.api.EnumAdder;
 import com.chocohead.mm.api.EnumAdder.EnumAddition;
 import xyz.wagyourtail.fabriconforge.FabricLoaderEarlyRiser;
+import xyz.wagyourtail.fabriconforge.loader.FabricLoaderImpl;
 
 public final class Plugin implements IMixinConfigPlugin {
     final List<String> mixins = new ArrayList<>();
@@ -138,6 +140,12 @@ public final class Plugin implements IMixinConfigPlugin {
             ClassTinkerers.addTransformation(entry.getKey(), makeAT(entry.getValue()));
         }
 
+        // only classes with widener entries get a transformer, everything else is left alone
+        AccessWidenerIndex accessWidener = FabricLoaderImpl.INSTANCE.getAccessWidener();
+        for (String target : accessWidener.getTargets()) {
+            ClassTinkerers.addTransformation(target.replace('/', '.'), accessWidener::apply);
+        }
+
         Map<String, byte[]> classGenerators = new HashMap<>();
         Map<String, Set<Consumer<ClassNode>>> classModifiers = new HashMap<String, Set<Consumer<ClassNode>>>() {
             private static final long serialVersionUID = 4152702952480161028L;
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.discovery;
+
+import net.fabricmc.loader.impl.util.mappings.MappingIndex;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.fabricmc.tinyremapper.InputTag;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that remapping mods with one tiny-remapper instance per partition writes the same classes as a single
+ * instance remapping all of them.
+ */
+class RemapPartitionerTest {
+	private static final String MAPPINGS = "tiny\t2\t0\tintermediary\tnamed\n"
+			+ "c\tnet/minecraft/class_1\tnet/minecraft/Entity\n"
+			+ "\tm\t()V\tmethod_1\ttick\n"
+			+ "\tf\tI\tfield_1\tage\n"
+			+ "c\tnet/minecraft/class_2\tnet/minecraft/World\n"
+			+ "\tm\t(Lnet/minecraft/class_1;)V\tmethod_2\tspawn\n"
+			+ "c\tnet/minecraft/class_3\tnet/minecraft/Item\n"
+			+ "\tm\t()I\tmethod_3\tgetCount\n";
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void partitionedOutputMatchesSingleInstance() throws IOException {
+		Path game = writeJar("game.jar",
+				createClass("net/minecraft/Entity", "java/lang/Object", cw -> {
+					cw.visitField(Opcodes.ACC_PUBLIC, "age", "I", null, null).visitEnd();
+					emptyMethod(cw, "tick", "()V");
+				}),
+				createClass("net/minecraft/World", "java/lang/Object", cw -> emptyMethod(cw, "spawn", "(Lnet/minecraft/Entity;)V")),
+				createClass("net/minecraft/Item", "java/lang/Object", cw -> returnZero(cw, "getCount")));
+
+		List<Mod> mods = new ArrayList<>();
+		// reused, extended by a
+		mods.add(new Mod("lib", false, createClass("lib/Base", "net/minecraft/class_1", cw -> {
+			MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method_1", "()V", null, null);
+			mv.visitCode();
+			mv.visitInsn(Opcodes.ACONST_NULL);
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "net/minecraft/class_2", "method_2", "(Lnet/minecraft/class_1;)V", false);
+			mv.visitInsn(Opcodes.RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		})));
+		// mod -> mod and, through lib, mod -> game inheritance
+		mods.add(new Mod("a", true, createClass("a/Mob", "lib/Base", cw -> {
+			MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "update", "()I", null, null);
+			mv.visitCode();
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "a/Mob", "method_1", "()V", false);
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, "a/Mob", "field_1", "I");
+			mv.visitInsn(Opcodes.IRETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		})));
+		mods.add(new Mod("b", true, createClass("b/Thing", "net/minecraft/class_1", cw -> emptyMethod(cw, "method_1", "()V"))));
+		mods.add(new Mod("c", true, createClass("c/Stack", "net/minecraft/class_3", cw -> returnZero(cw, "method_3"))));
+		// reused without any remapped mod in its group, only the single instance reads it
+		mods.add(new Mod("d", false, createClass("d/Unused", "net/minecraft/class_3", cw -> returnZero(cw, "method_3"))));
+
+		for (Mod mod : mods) {
+			mod.path = writeJar(mod.id + ".jar", mod.classData);
+		}
+
+		MappingIndex mappings = new MappingIndex(TinyMappingFactory.load(new BufferedReader(new StringReader(MAPPINGS))), "intermediary", "named");
+		MappingPruner pruner = new MappingPruner(mappings);
+		List<RemapPartitioner.ModClasses> modClasses = new ArrayList<>();
+		boolean[] remapped = new boolean[mods.size()];
+
+		for (int i = 0; i < mods.size(); i++) {
+			RemapPartitioner.ModClasses classes = new RemapPartitioner.ModClasses();
+			pruner.scan(mods.get(i).path, null, classes);
+			classes.size = Files.size(mods.get(i).path);
+			modClasses.add(classes);
+			remapped[i] = mods.get(i).remapped;
+		}
+
+		assertTrue(pruner.isComplete());
+
+		Path[] classpath = { game };
+		IMappingProvider mappingProvider = pruner.build(classpath);
+		Map<String, Map<String, byte[]>> expected = remap(mods, mappingProvider, classpath);
+
+		List<List<Integer>> partitions = RemapPartitioner.partition(modClasses, remapped, 4);
+		assertEquals(3, partitions.size());
+		Map<String, Map<String, byte[]>> actual = new HashMap<>();
+
+		for (List<Integer> indices : partitions) {
+			List<Mod> partition = new ArrayList<>();
+			for (int i : indices) partition.add(mods.get(i));
+			assertFalse(partition.contains(mods.get(4)));
+
+			actual.putAll(remap(partition, mappingProvider, classpath));
+		}
+
+		assertEquals(expected.keySet(), actual.keySet());
+
+		for (Map.Entry<String, Map<String, byte[]>> entry : expected.entrySet()) {
+			Map<String, byte[]> expectedClasses = entry.getValue();
+			Map<String, byte[]> actualClasses = actual.get(entry.getKey());
+			assertEquals(expectedClasses.keySet(), actualClasses.keySet());
+
+			for (String name : expectedClasses.keySet()) {
+				assertArrayEquals(expectedClasses.get(name), actualClasses.get(name), name);
+			}
+		}
+	}
+
+	/**
+	 * Remaps the given mods with a single instance the way {@link RuntimeModRemapper} sets up each partition.
+	 *
+	 * @return remapped classes by mod id, for the remapped mods only
+	 */
+	private static Map<String, Map<String, byte[]>> remap(List<Mod> mods, IMappingProvider mappingProvider, Path[] classpath) {
+		TinyRemapper remapper = TinyRemapper.newRemapper()
+				.withMappings(mappingProvider)
+				.renameInvalidLocals(false)
+				.build();
+
+		try {
+			remapper.readClassPath(classpath);
+			Map<Mod, InputTag> tags = new HashMap<>();
+
+			for (Mod mod : mods) {
+				if (mod.remapped) {
+					InputTag tag = remapper.createInputTag();
+					tags.put(mod, tag);
+					remapper.readInputs(tag, mod.path);
+				} else {
+					remapper.readClassPath(mod.path);
+				}
+			}
+
+			Map<String, Map<String, byte[]>> ret = new HashMap<>();
+
+			for (Map.Entry<Mod, InputTag> entry : tags.entrySet()) {
+				// tiny-remapper writes from its worker threads
+				Map<String, byte[]> classes = new ConcurrentHashMap<>();
+				remapper.apply(classes::put, entry.getValue());
+				ret.put(entry.getKey().id, classes);
+			}
+
+			return ret;
+		} finally {
+			remapper.finish();
+		}
+	}
+
+	private Path writeJar(String name, byte[]... classes) throws IOException {
+		Path ret = dir.resolve(name);
+
+		try (OutputStream os = Files.newOutputStream(ret);
+				ZipOutputStream zos = new ZipOutputStream(os)) {
+			for (byte[] data : classes) {
+				zos.putNextEntry(new ZipEntry(new ClassReader(data).getClassName() + ".class"));
+				zos.write(data);
+				zos.closeEntry();
+			}
+		}
+
+		return ret;
+	}
+
+	private static byte[] createClass(String name, String superName, ClassContent content) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		content.accept(cw);
+		cw.visitEnd();
+
+		return cw.toByteArray();
+	}
+
+	private static void emptyMethod(ClassWriter cw, String name, String desc) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, name, desc, null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void returnZero(ClassWriter cw, String name) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, name, "()I", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private interface ClassContent {
+		void accept(ClassWriter cw);
+	}
+
+	private static final class Mod {
+		final String id;
+		final boolean remapped;
+		final byte[] classData;
+		Path path;
+
+		Mod(String id, boolean remapped, byte[] classData) {
+			this.id = id;
+			this.remapped = remapped;
+			this.classData = classData;
+		}
+
+		@Override
+		public String toString() {
+			return id;
+		}
+	}
+}
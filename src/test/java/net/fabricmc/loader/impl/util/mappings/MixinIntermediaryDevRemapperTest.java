@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.loader.impl.util.mappings;
+
+import net.fabricmc.mapping.tree.Descriptored;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a remapper shared by many threads answers every lookup like a remapper used by a single thread.
+ */
+class MixinIntermediaryDevRemapperTest {
+	private static final String FROM = "intermediary";
+	private static final String TO = "named";
+	private static final int CLASSES = 200;
+	private static final int MOD_CLASSES = 50;
+	private static final int THREADS = 16;
+	private static final int ROUNDS = 20;
+
+	@Test
+	void concurrentLookupsWithInheritedTables() throws Exception {
+		testConcurrentLookups(true);
+	}
+
+	@Test
+	void concurrentLookupsWithHierarchyCache() throws Exception {
+		testConcurrentLookups(false);
+	}
+
+	private static void testConcurrentLookups(boolean inheritedTables) throws Exception {
+		MappingIndex index = new MappingIndex(loadMappings(), FROM, TO);
+		Map<String, String> superClasses = getSuperClasses();
+		List<Lookup> lookups = getLookups();
+
+		List<String> expected = new ArrayList<>(lookups.size());
+		TestRemapper singleThreaded = new TestRemapper(index, inheritedTables, superClasses);
+
+		for (Lookup lookup : lookups) {
+			expected.add(lookup.apply(singleThreaded));
+		}
+
+		TestRemapper shared = new TestRemapper(index, inheritedTables, superClasses);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> futures = new ArrayList<>(THREADS);
+
+		try {
+			for (int i = 0; i < THREADS; i++) {
+				Random random = new Random(i);
+
+				futures.add(executor.submit(() -> {
+					List<Integer> order = new ArrayList<>(lookups.size());
+					for (int j = 0; j < lookups.size(); j++) order.add(j);
+
+					start.await();
+					int checked = 0;
+
+					for (int round = 0; round < ROUNDS; round++) {
+						Collections.shuffle(order, random);
+
+						for (int j : order) {
+							Lookup lookup = lookups.get(j);
+							assertEquals(expected.get(j), lookup.apply(shared), lookup::toString);
+							checked++;
+						}
+					}
+
+					return checked;
+				}));
+			}
+
+			start.countDown();
+
+			for (Future<Integer> future : futures) {
+				assertEquals(ROUNDS * lookups.size(), (int) future.get(1, TimeUnit.MINUTES));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (!inheritedTables) {
+			// owner dependent lookups after the first round come from the hierarchy cache
+			assertTrue(shared.getHierarchyCacheHits() > 0);
+		}
+	}
+
+	private static TinyTree loadMappings() throws IOException {
+		StringBuilder sb = new StringBuilder("tiny\t2\t0\t" + FROM + "\t" + TO + "\n");
+
+		for (int i = 0; i < CLASSES; i++) {
+			sb.append("c\tnet/minecraft/class_").append(i).append("\tnet/minecraft/Named").append(i).append('\n');
+			sb.append("\tm\t()V\tmethod_").append(i).append("\tnamedMethod").append(i).append('\n');
+			sb.append("\tf\tI\tfield_").append(i).append("\tnamedField").append(i).append('\n');
+
+			// the same source name and descriptor in several classes mapping to different names, owner dependent
+			if (i % 2 == 0) {
+				sb.append("\tm\t(Lnet/minecraft/class_0;)V\tmethod_shared\tshared").append(i % 3).append('\n');
+				sb.append("\tf\tLnet/minecraft/class_0;\tfield_shared\tsharedField").append(i % 3).append('\n');
+			}
+		}
+
+		return TinyMappingFactory.load(new BufferedReader(new StringReader(sb.toString())));
+	}
+
+	/**
+	 * Super classes in the target namespace, a binary tree of the mapped classes with unmapped classes below.
+	 */
+	private static Map<String, String> getSuperClasses() {
+		Map<String, String> ret = new HashMap<>();
+		ret.put("net/minecraft/Named0", "java/lang/Object");
+
+		for (int i = 1; i < CLASSES; i++) {
+			ret.put("net/minecraft/Named" + i, "net/minecraft/Named" + (i - 1) / 2);
+		}
+
+		for (int i = 0; i < MOD_CLASSES; i++) {
+			ret.put("mod/Owner" + i, "net/minecraft/Named" + (i * 7 % CLASSES));
+		}
+
+		return ret;
+	}
+
+	private static List<Lookup> getLookups() {
+		List<Lookup> ret = new ArrayList<>();
+		String[] sharedDescs = { "(Lnet/minecraft/class_0;)V", "(Lnet/minecraft/Named0;)V" };
+		String[] sharedFieldDescs = { "Lnet/minecraft/class_0;", "Lnet/minecraft/Named0;" };
+
+		for (int i = 0; i < CLASSES; i++) {
+			String[] owners = { "net/minecraft/class_" + i, "net/minecraft/Named" + i };
+
+			for (String owner : owners) {
+				ret.add(new Lookup(Lookup.METHOD, owner, "method_" + i, "()V"));
+				ret.add(new Lookup(Lookup.METHOD, owner, "method_" + i, null));
+				ret.add(new Lookup(Lookup.METHOD, owner, "method_" + (i + 1) % CLASSES, "()V"));
+				ret.add(new Lookup(Lookup.METHOD, owner, "unknown", "()V"));
+				ret.add(new Lookup(Lookup.FIELD, owner, "field_" + i, "I"));
+				ret.add(new Lookup(Lookup.FIELD, owner, "unknown", "I"));
+
+				for (String desc : sharedDescs) ret.add(new Lookup(Lookup.METHOD, owner, "method_shared", desc));
+				for (String desc : sharedFieldDescs) ret.add(new Lookup(Lookup.FIELD, owner, "field_shared", desc));
+
+				ret.add(new Lookup(Lookup.CLASS, owner, null, null));
+			}
+
+			ret.add(new Lookup(Lookup.METHOD, null, "method_" + i, "()V"));
+			ret.add(new Lookup(Lookup.FIELD, null, "field_" + i, "I"));
+		}
+
+		for (int i = 0; i < MOD_CLASSES; i++) {
+			String owner = "mod/Owner" + i;
+			int parent = i * 7 % CLASSES;
+
+			ret.add(new Lookup(Lookup.METHOD, owner, "method_" + parent, "()V"));
+			ret.add(new Lookup(Lookup.METHOD, owner, "method_shared", sharedDescs[i % 2]));
+			ret.add(new Lookup(Lookup.METHOD, owner, "unknown", "()V"));
+			ret.add(new Lookup(Lookup.FIELD, owner, "field_" + parent, "I"));
+			ret.add(new Lookup(Lookup.FIELD, owner, "field_shared", sharedFieldDescs[i % 2]));
+			ret.add(new Lookup(Lookup.CLASS, owner, null, null));
+		}
+
+		return ret;
+	}
+
+	private static final class Lookup {
+		static final int CLASS = 0;
+		static final int METHOD = 1;
+		static final int FIELD = 2;
+
+		final int type;
+		final String owner;
+		final String name;
+		final String desc;
+
+		Lookup(int type, String owner, String name, String desc) {
+			this.type = type;
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+		}
+
+		String apply(MixinIntermediaryDevRemapper remapper) {
+			try {
+				switch (type) {
+				case CLASS: return remapper.map(owner);
+				case METHOD: return remapper.mapMethodName(owner, name, desc);
+				case FIELD: return remapper.mapFieldName(owner, name, desc);
+				default: throw new IllegalStateException();
+				}
+			} catch (RuntimeException e) {
+				// e.g. ambiguous lookups without an owner, these have to fail the same way
+				return "!" + e.getMessage();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + owner + " " + name + " " + desc;
+		}
+	}
+
+	/**
+	 * Resolves owner dependent names against {@link #getSuperClasses} instead of a running Mixin environment.
+	 */
+	private static final class TestRemapper extends MixinIntermediaryDevRemapper {
+		private final MappingIndex index;
+		private final Map<String, String> superClasses;
+
+		TestRemapper(MappingIndex index, boolean inheritedTables, Map<String, String> superClasses) throws IOException {
+			super(index, inheritedTables ? InheritedMemberTables.build(index, name -> getSupertypes(superClasses, name)) : null);
+
+			this.index = index;
+			this.superClasses = superClasses;
+		}
+
+		private static String[] getSupertypes(Map<String, String> superClasses, String name) {
+			String superName = superClasses.get(name);
+
+			return superName != null ? new String[] { superName } : null;
+		}
+
+		@Override
+		String resolveMethodName(String owner, String name, String desc) {
+			return resolve(owner, name, desc, true);
+		}
+
+		@Override
+		String resolveFieldName(String owner, String name, String desc) {
+			return resolve(map(owner), name, desc, false);
+		}
+
+		private String resolve(String owner, String name, String desc, boolean method) {
+			String unmapDesc = unmapDesc(desc);
+
+			for (String cls = owner; cls != null && !cls.startsWith("java/"); cls = superClasses.get(cls)) {
+				String ownerO = unmap(cls);
+				Descriptored member = method ? index.getMethod(ownerO, name, unmapDesc) : index.getField(ownerO, name, unmapDesc);
+
+				if (member != null) return member.getName(TO);
+			}
+
+			return name;
+		}
+	}
+}